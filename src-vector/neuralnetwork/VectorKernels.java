@@ -0,0 +1,91 @@
+package neuralnetwork;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels using the SIMD lanes of the CPU. Needs --add-modules jdk.incubator.vector when compiling and running,
+ * Kernels.INSTANCE only picks this class when the module is there.
+ *
+ * It lives outside of src so that src compiles with a plain javac. To build it, compile src first and then this
+ * Class into the same output directory:
+ *
+ *   javac -d out $(find src -name '*.java')
+ *   javac --add-modules jdk.incubator.vector -cp out -d out src-vector/neuralnetwork/VectorKernels.java
+ *   java --add-modules jdk.incubator.vector -cp out neuralnetwork.Network
+ */
+class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Twice as many lanes as SPECIES in the same register width
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int len) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(len);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+
+        // The last few elements that don't fill a whole vector
+        for (; i < len; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int len) {
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int upper = SPECIES.loopBound(len);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            // Multiply and add as two steps instead of an fma so the result matches the scalar loop exactly
+            va.mul(vx).add(vy).intoArray(y, yOffset + i);
+        }
+        for (; i < len; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int len) {
+        FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+        int upper = FLOAT_SPECIES.loopBound(len);
+        int i = 0;
+        for (; i < upper; i += FLOAT_SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int len) {
+        FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int upper = FLOAT_SPECIES.loopBound(len);
+        int i = 0;
+        for (; i < upper; i += FLOAT_SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            va.mul(vx).add(vy).intoArray(y, yOffset + i);
+        }
+        for (; i < len; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+}
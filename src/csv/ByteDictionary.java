@@ -0,0 +1,104 @@
+package csv;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The distinct values of a column, looked up straight from the bytes of a cell so finding a value that was
+ * Already seen allocates nothing. Values get their codes in the order they are first added.
+ * It is an open addressing table with linear probing, holding code + 1 so that 0 marks an empty slot.
+ */
+class ByteDictionary {
+
+    private int[] table;
+    private int[] hashes;
+    private byte[][] keys;
+    private final ArrayList<String> values;
+
+    ByteDictionary() {
+        table = new int[16];
+        hashes = new int[8];
+        keys = new byte[8][];
+        values = new ArrayList<>();
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    String get(int code) {
+        return values.get(code);
+    }
+
+    byte[] getBytes(int code) {
+        return keys[code];
+    }
+
+    ArrayList<String> getValues() {
+        return values;
+    }
+
+    // The code of bytes[from, to), or -1 if it was never added
+    int find(byte[] bytes, int from, int to) {
+        int hash = hash(bytes, from, to);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int code = table[slot] - 1;
+            if (hashes[code] == hash && Arrays.equals(keys[code], 0, keys[code].length, bytes, from, to)) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
+    // The code of bytes[from, to), which is added with the next free code if it is new
+    int add(byte[] bytes, int from, int to) {
+        int hash = hash(bytes, from, to);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            int code = table[slot] - 1;
+            if (hashes[code] == hash && Arrays.equals(keys[code], 0, keys[code].length, bytes, from, to)) {
+                return code;
+            }
+        }
+
+        int code = values.size();
+        if (code == keys.length) {
+            keys = Arrays.copyOf(keys, code * 2);
+            hashes = Arrays.copyOf(hashes, code * 2);
+        }
+        keys[code] = Arrays.copyOfRange(bytes, from, to);
+        hashes[code] = hash;
+        values.add(new String(keys[code], StandardCharsets.UTF_8));
+        table[slot] = code + 1;
+
+        // Keep the table at most half full
+        if (values.size() * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return code;
+    }
+
+    private void rehash(int length) {
+        table = new int[length];
+        int mask = length - 1;
+        for (int code = 0; code < values.size(); code++) {
+            int slot = hashes[code] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the bits, since the table only looks at the lowest ones
+        return h ^ (h >>> 16);
+    }
+}
@@ -5,19 +5,27 @@ import neuralnetwork.Network;
 import neuralnetwork.NetworkTools;
 import trainset.TrainSet;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class CSV {
 
     private final TrainSet trainSet;
     private String[] distinctTargets;
     private String[] topRow;
-    private ArrayList<Hashtable<String, Double>> inputsTable;
+    private CategoricalEncoder encoder;
+    private CSVSchema schema;
+
+    // Files are parsed in parts of at least 1 MB and at most 256 MB
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_CHUNK_BYTES = 1 << 28;
 
     public TrainSet getTrainSet() {
         return trainSet;
@@ -27,31 +35,50 @@ public class CSV {
         return topRow;
     }
 
+    public CSVSchema getSchema() {
+        return schema;
+    }
+
+    public CategoricalEncoder getEncoder() {
+        return encoder;
+    }
+
     public CSV(String filePath) {
-        inputsTable = new ArrayList<>();
+        this(filePath, null, Encoding.ORDINAL);
+    }
+
+    // Loads the file with a schema that is already known, e.g. from another file of the same kind
+    public CSV(String filePath, CSVSchema schema) {
+        this(filePath, schema, Encoding.ORDINAL);
+    }
+
+    public CSV(String filePath, CSVSchema schema, Encoding encoding) {
+        this(filePath, schema, encoding, Scaling.MAX);
+    }
+
+    public CSV(String filePath, CSVSchema schema, Encoding encoding, Scaling scaling) {
         topRow = null;
-        trainSet = loadCSV(filePath);
+        trainSet = loadCSV(filePath, schema, encoding, scaling);
     }
 
     public String[] evaluate(Network network, String[] inputs) {
-        double[] doubleInputs = new double[inputs.length];
-        ArrayList<String[]> in = new ArrayList<>();
-        for (String s : inputs) {
-            String[] strArr = new String[1];
-            strArr[0] = s;
-            in.add(strArr);
+        if (inputs.length != encoder.getColumns()) {
+            throw new IllegalArgumentException("A row needs " + encoder.getColumns() + " cells, not " + inputs.length);
         }
-        if (areAllStrings(in)) {
-            for (int i = 0; i < inputs.length ; i++) {
-                doubleInputs[i] = inputsTable.get(i).get(inputs[i]);
-            }
-        } else {
-            for (int i = 0; i < inputs.length; i++) {
-                try {
-                    doubleInputs[i] = Double.parseDouble(inputs[i]);
-                } catch (NumberFormatException e) {
-                    e.printStackTrace();
+        double[] doubleInputs = new double[encoder.getEncodedSize()];
+        for (int i = 0; i < inputs.length; i++) {
+            if (encoder.isCategorical(i)) {
+                int code = encoder.code(i, inputs[i]);
+                if (code < 0) {
+                    throw new IllegalArgumentException(inputs[i] + " is not a category of column " + i);
+                }
+                encoder.encode(i, code, doubleInputs);
+            } else {
+                double number = CSVSchema.parseNumber(inputs[i]);
+                if (Double.isNaN(number)) {
+                    throw new IllegalArgumentException(inputs[i] + " is not a number");
                 }
+                encoder.encodeNumber(i, number, doubleInputs);
             }
         }
         double[] guess = network.calculate(doubleInputs);
@@ -102,233 +129,159 @@ public class CSV {
         }
     }
 
-    private TrainSet loadCSV(String filePath) {
-        String splitBy = ",";
-        String line;
-
-        // An ArrayList for flexibility
-        ArrayList<String[]> fileContent = new ArrayList<>();
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(filePath));
-
-            while ((line = br.readLine()) != null) {
-                String[] row = line.split(splitBy);
-
-                // Since I want to maintain the String[] condition of each row
-                fileContent.add(row);
+    /**
+     * Maps the file and parses it in parts on the common pool, so only the packed cells and the distinct values of
+     * The categorical columns are kept in memory, never the text of the file. The schema says which columns hold
+     * Numbers and whether to skip a header. A numeric column that turns out to hold something else further down than
+     * The schema looked is made categorical and the file is parsed again.
+     */
+    private TrainSet loadCSV(String filePath, CSVSchema schema, Encoding encoding, Scaling scaling) {
+        CSVChunk[] chunks;
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            boolean inferred = schema == null;
+            if (inferred) {
+                schema = CSVSchema.of(filePath, channel);
+                if (schema == null) {
+                    return null;
+                }
+            }
+            chunks = parseChunks(channel, schema);
+
+            boolean[] notNumeric = new boolean[schema.size()];
+            boolean wrong = false;
+            for (CSVChunk chunk : chunks) {
+                for (int j = 0; j < notNumeric.length; j++) {
+                    notNumeric[j] |= chunk.notNumeric[j];
+                    wrong |= chunk.notNumeric[j];
+                }
+            }
+            if (wrong) {
+                schema = schema.withCategorical(notNumeric);
+                if (inferred) {
+                    CSVSchema.update(filePath, schema);
+                }
+                chunks = parseChunks(channel, schema);
             }
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
-        return parseCSV(fileContent);
-    }
-
-    private static String[] removeRepeats(String[] cand) {
-        ArrayList<String> temp = new ArrayList<>();
-        for (String aCand : cand) {
-            if (!temp.contains(aCand)) {
-                temp.add(aCand);
-            }
-        }
-        String[] res = new String[temp.size()];
-        for (int i = 0; i < res.length; i++) {
-            res[i] = temp.get(i);
+        this.schema = schema;
+        topRow = schema.getHeader();
+
+        // Merging the dictionaries of the parts in file order gives every value the code it would have gotten
+        // From reading the file front to back, so the encoding doesn't depend on how the file was split
+        int cols = schema.size();
+        ByteDictionary[] dictionaries = new ByteDictionary[cols];
+        for (int j = 0; j < cols; j++) {
+            dictionaries[j] = new ByteDictionary();
         }
-        return res;
-    }
-
-    private static double[] removeRepeats(double[] cand) {
-        ArrayList<Double> temp = new ArrayList<>();
-        for (double aCand : cand) {
-            if (!temp.contains(aCand)) {
-                temp.add(aCand);
+        long rows = 0;
+        ColumnStatistics statistics = new ColumnStatistics(cols - 1);
+        // For every part, the code every value of its own dictionaries has in the merged ones
+        int[][][] remaps = new int[chunks.length][cols][];
+        for (int c = 0; c < chunks.length; c++) {
+            CSVChunk chunk = chunks[c];
+            rows += chunk.rows;
+            statistics.merge(chunk.statistics);
+            for (int j = 0; j < cols; j++) {
+                ByteDictionary local = chunk.dictionaries[j];
+                if (local == null) {
+                    continue;
+                }
+                remaps[c][j] = new int[local.size()];
+                for (int code = 0; code < local.size(); code++) {
+                    byte[] key = local.getBytes(code);
+                    remaps[c][j][code] = dictionaries[j].add(key, 0, key.length);
+                }
+                chunk.dictionaries[j] = null;
             }
         }
-        double[] res = new double[temp.size()];
-        for (int i = 0; i < res.length; i++) {
-            res[i] = temp.get(i);
+        if (rows == 0) {
+            return null;
         }
-        return res;
-    }
 
-    private static int linearSearch(double[] arr, double term) {
-        for (int i = 0; i < arr.length; i++) {
-            if (arr[i] == term) {
-                return i;
-            }
-        }
-        return -1;
-    }
+        this.distinctTargets = dictionaries[cols - 1].getValues().toArray(new String[0]);
 
-    private static int linearSearch(String[] arr, String term) {
-        for (int i = 0; i < arr.length; i++) {
-            if (arr[i].equals(term)) {
-                return i;
+        String[][] categories = new String[cols - 1][];
+        for (int j = 0; j < cols - 1; j++) {
+            if (!schema.isNumeric(j)) {
+                categories[j] = dictionaries[j].getValues().toArray(new String[0]);
             }
         }
-        return -1;
-    }
+        encoder = new CategoricalEncoder(encoding, categories, distinctTargets, Scaler.fit(statistics, scaling));
 
-    private static boolean areAllStrings(ArrayList<String[]> fileContent) {
-        boolean are = true;
-        for (String[] strArr: fileContent) {
-            for (String s: strArr) {
-                try {
-                    double d = Double.parseDouble(s);
-                    are = false;
-                } catch (NumberFormatException e) {
-                    // If I encountered even a single non-double then the content isn't "All Strings"
-                    return true;
-                }
-            }
+        // A TrainSet keeps all its inputs in a single array
+        if (rows * encoder.getEncodedSize() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(filePath + " has " + rows + " rows of " + encoder.getEncodedSize()
+                    + " inputs, which is more than a TrainSet can hold");
         }
-        return are;
+        // Every row only keeps the index of its target instead of a one-hot row of targetSize doubles
+        TrainSet set = TrainSet.withLabels(encoder.getEncodedSize(), encoder.getTargetCount(), (int) rows);
+        double[] inputs = new double[encoder.getEncodedSize()];
+        for (int c = 0; c < chunks.length; c++) {
+            addRows(set, chunks[c], remaps[c], encoder, inputs);
+            // The cells of a part are not needed anymore once its rows are in the set
+            chunks[c] = null;
+            remaps[c] = null;
+        }
+        return set;
     }
 
-    private static boolean isFirstRow(ArrayList<String[]> fileContent, boolean areStrings) {
-        String[] firstRow = fileContent.get(0);
-        boolean isFirst;
-        if (areStrings) {
-            // Get all the rows of the content except the first row
-            String[] allRows = new String[(fileContent.size()-1) * fileContent.get(0).length];
-            for (int i = 1; i < fileContent.size(); i++) {
-                for (int j = 0; j < fileContent.get(i).length; j++) {
-                    allRows[(i-1)*fileContent.get(i).length + j] = fileContent.get(i)[j];
-                }
-            }
-
-            // Assume it is the first row
-            isFirst = true;
-
-            // If I find any element inside the rest of the content which is equal to an element
-            // Inside the first row then the first row is not the "First Row"
-            for (String a : firstRow) {
-                for (String b : allRows) {
-                    if (a.equals(b)) {
-                        isFirst = false;
-                        break;
-                    }
+    /**
+     * Adds the rows of a part to the set. Categories and numbers are both encoded by the encoder, so the rows look
+     * Exactly like the ones evaluate makes. The target of a row is the code of its value in the last column.
+     */
+    private static void addRows(TrainSet set, CSVChunk chunk, int[][] remap, CategoricalEncoder encoder,
+                                double[] inputs) {
+        int cols = remap.length;
+        double[] cells = chunk.cells;
+        for (int i = 0, row = 0; i < chunk.rows; i++, row += cols) {
+            for (int j = 0; j < cols - 1; j++) {
+                if (remap[j] != null) {
+                    encoder.encode(j, remap[j][(int) cells[row + j]], inputs);
+                } else {
+                    encoder.encodeNumber(j, cells[row + j], inputs);
                 }
-
-                // No need to continue looking if even a single element satisfies the condition
-                if (!isFirst)
-                    break;
             }
-        } else {
-            // Making this ArrayList since the areAllStrings method expects an ArrayList<String[]>
-            ArrayList<String[]> temp = new ArrayList<>();
-            temp.add(firstRow);
-
-            /* If the whole content isn't made up strings then only 2 possibilities are there
-             Either the whole content is made of double values
-             Or some of it is made of Strings but not all */
-
-            // So if the first row is made of all strings then it has to be the "First Row" else not
-            isFirst = areAllStrings(temp);
+            set.addData(inputs, remap[cols - 1][(int) cells[row + cols - 1]]);
         }
-        return isFirst;
     }
 
-    private TrainSet parseCSV(ArrayList<String[]> fileContent) {
-        double[][] fileDouble;
-
-        for (String[] aFileContent : fileContent) {
-            for (int j = 0; j < aFileContent.length; j++) {
-                aFileContent[j] = aFileContent[j].toLowerCase().trim();
+    /**
+     * Splits the file after the header, if there is one, into parts that end on a newline and parses them in
+     * Parallel.
+     */
+    private static CSVChunk[] parseChunks(FileChannel channel, CSVSchema schema) throws IOException {
+        long size = channel.size();
+        long start = schema.hasHeader() ? CSVChunk.nextLine(channel, 0) : 0;
+
+        // At least one part per thread, and none bigger than a single map can be
+        int threads = Runtime.getRuntime().availableProcessors();
+        long chunkBytes = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, (size - start + threads - 1) / threads));
+
+        ArrayList<CSVChunk> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = start + chunkBytes >= size ? size : CSVChunk.nextLine(channel, start + chunkBytes);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("A line of the file is longer than 2 GB");
             }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            chunks.add(new CSVChunk(buffer, schema));
+            start = end;
         }
 
-        if (areAllStrings(fileContent)) {
-            if (isFirstRow(fileContent, true)) {
-                topRow = fileContent.remove(0);
-            }
-
-            fileDouble = new double[fileContent.size()][fileContent.get(0).length];
-
-            for (int j = 0; j < fileContent.get(0).length; j++) {
-                String[] col = new String[fileContent.size()];
-                Hashtable<String, Double> hashtable = new Hashtable<>();
-
-                for (int i = 0; i < fileContent.size(); i++) {
-                    col[i] = fileContent.get(i)[j];
-                }
-                String[] distinctCol = removeRepeats(col);
-
-                // Populating the global distinctTargets array
-                if (j == fileContent.get(0).length - 1) {
-                    this.distinctTargets = new String[distinctCol.length];
-                    System.arraycopy(distinctCol, 0, this.distinctTargets, 0, distinctCol.length);
+        ArrayList<RecursiveAction> tasks = new ArrayList<>();
+        for (CSVChunk chunk : chunks) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    chunk.parse();
                 }
-
-                double[] distinctColNum = new double[distinctCol.length];
-                for (int i = 0; i < distinctColNum.length; i++) {
-                    distinctColNum[i] = i + 1;
-                }
-                for (int i = 0; i < col.length; i++) {
-                    int index = linearSearch(distinctCol, col[i]);
-                    fileDouble[i][j] = distinctColNum[index];
-                }
-
-                if (j == fileContent.get(0).length - 1)
-                    System.out.println("STOP");
-
-                if (j < fileContent.get(0).length - 1) {
-                    distinctColNum = NetworkTools.normalize(distinctColNum);
-                    for (int i = 0; i < distinctColNum.length; i++) {
-                        hashtable.put(distinctCol[i], distinctColNum[i]);
-                    }
-                    inputsTable.add(hashtable);
-                }
-            }
-        } else {
-            if (isFirstRow(fileContent, false)) {
-                topRow = fileContent.remove(0);
-            }
-            fileDouble = new double[fileContent.size()][];
-            String[] targetPool = new String[fileContent.size()];
-
-            for (int i = 0; i < fileDouble.length; i++) {
-                fileDouble[i] = new double[fileContent.get(i).length];
-                targetPool[i] = String.valueOf(fileContent.get(i)[fileContent.get(i).length - 1]);
-                for (int j = 0; j < fileDouble[i].length; j++) {
-                    fileDouble[i][j] = Double.parseDouble(fileContent.get(i)[j]);
-                }
-            }
-
-            // Populating the global distinctTargets array
-            this.distinctTargets = removeRepeats(targetPool);
+            });
         }
-        return parseCSV(fileDouble);
+        ForkJoinTask.invokeAll(tasks);
+        return chunks.toArray(new CSVChunk[0]);
     }
 
-
-    private TrainSet parseCSV(double[][] fileContent) {
-
-        fileContent = NetworkTools.normalizeCols(fileContent);
-        int targetSize;
-        double[] targetCands = new double[fileContent.length];
-
-        for (int i = 0; i < targetCands.length; i++) {
-            double[] d = fileContent[i];
-            targetCands[i] = d[d.length-1];
-        }
-
-        double[] distinctTargets = removeRepeats(targetCands);
-
-        targetSize = distinctTargets.length;
-        TrainSet set = new TrainSet(fileContent[0].length - 1, targetSize);
-
-        for (double[] d : fileContent) {
-            double t = d[d.length - 1];
-            double[] inputs = new double[d.length - 1];
-            System.arraycopy(d, 0, inputs, 0, inputs.length);
-            double[] targets = new double[distinctTargets.length];
-            int index = linearSearch(distinctTargets, t);
-            if (index != -1) {
-                targets[index] = 1d;
-            }
-            set.addData(inputs, targets);
-        }
-        return set;
-    }
 }
@@ -0,0 +1,185 @@
+package csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A part of a CSV file that starts at the beginning of a line and ends after a newline, so it can be parsed
+ * On its own. The cells are read straight from the bytes and lowercased and trimmed. A cell of a numeric column is
+ * Stored as its number and counted in the statistics of its column, a cell of a categorical column as its code in
+ * The dictionary of that column. The target column is always read as names, since its values are the classes.
+ * The dictionaries and statistics only know this part, CSV merges them in file order afterwards.
+ */
+class CSVChunk {
+
+    // The most cells an array can hold
+    private static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    private final ByteBuffer buffer;
+    private final int cols;
+    private final boolean[] numeric;
+
+    // The dictionaries of the categorical columns and of the target column
+    final ByteDictionary[] dictionaries;
+    // The statistics of the numeric input columns
+    final ColumnStatistics statistics;
+    int rows;
+    // Row-major, the number of every numeric cell and the code of every categorical one
+    double[] cells;
+    // The numeric columns that turned out to have a cell that isn't a number
+    final boolean[] notNumeric;
+
+    private byte[] cell;
+
+    CSVChunk(ByteBuffer buffer, CSVSchema schema) {
+        this.buffer = buffer;
+        this.cols = schema.size();
+        this.numeric = new boolean[cols];
+        this.dictionaries = new ByteDictionary[cols];
+        for (int j = 0; j < cols; j++) {
+            numeric[j] = schema.isNumeric(j) && j < cols - 1;
+            if (!numeric[j]) {
+                dictionaries[j] = new ByteDictionary();
+            }
+        }
+        this.statistics = new ColumnStatistics(cols - 1);
+        this.cells = new double[Math.max(16, cols * 64)];
+        this.notNumeric = new boolean[cols];
+        this.cell = new byte[64];
+    }
+
+    void parse() {
+        int end = buffer.limit();
+        int pos = 0;
+        while (pos < end) {
+            int lineEnd = pos;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (!isBlank(pos, lineEnd)) {
+                parseLine(pos, lineEnd);
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    // The number of cells on the first line of buffer
+    static int countCells(ByteBuffer buffer) {
+        int cells = 1;
+        for (int i = 0; i < buffer.limit() && buffer.get(i) != '\n'; i++) {
+            if (buffer.get(i) == ',') {
+                cells++;
+            }
+        }
+        return cells;
+    }
+
+    private void parseLine(int from, int to) {
+        long needed = (long) (rows + 1) * cols;
+        if (needed > cells.length) {
+            if (needed > MAX_CELLS) {
+                throw new IllegalStateException("A part of the file has more than " + MAX_CELLS + " cells");
+            }
+            cells = Arrays.copyOf(cells, (int) Math.min(MAX_CELLS, Math.max(needed, 2L * cells.length)));
+        }
+
+        int j = 0;
+        int cellStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ',') {
+                if (j < cols) {
+                    addCell(j, cellStart, i);
+                }
+                j++;
+                cellStart = i + 1;
+            }
+        }
+        // A short row gets empty cells
+        for (; j < cols; j++) {
+            addCell(j, to, to);
+        }
+        rows++;
+    }
+
+    private void addCell(int col, int from, int to) {
+        while (from < to && (buffer.get(from) & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') {
+            to--;
+        }
+        int length = readLowerCase(from, to);
+
+        int index = rows * cols + col;
+        if (numeric[col]) {
+            double number = CSVSchema.parseNumber(cell, 0, length);
+            if (Double.isNaN(number)) {
+                notNumeric[col] = true;
+            } else {
+                statistics.add(col, number);
+            }
+            cells[index] = number;
+        } else {
+            cells[index] = dictionaries[col].add(cell, 0, length);
+        }
+    }
+
+    // Copies buffer[from, to) lowercased into cell and returns its length
+    private int readLowerCase(int from, int to) {
+        int length = to - from;
+        if (length > cell.length) {
+            cell = new byte[Math.max(length, cell.length * 2)];
+        }
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(from + i);
+            if (b < 0) {
+                ascii = false;
+            } else if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            cell[i] = b;
+        }
+        if (ascii) {
+            return length;
+        }
+
+        // Anything that isn't ASCII is lowercased the same way a String would be
+        byte[] lower = new String(cell, 0, length, StandardCharsets.UTF_8).toLowerCase().trim()
+                .getBytes(StandardCharsets.UTF_8);
+        if (lower.length > cell.length) {
+            cell = new byte[lower.length];
+        }
+        System.arraycopy(lower, 0, cell, 0, lower.length);
+        return lower.length;
+    }
+
+    // The position right after the first newline at or after position, or the size of the file if there is none
+    static long nextLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((buffer.get(i) & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
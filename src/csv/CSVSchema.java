@@ -0,0 +1,338 @@
+package csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The type of every column of a CSV file and its header, if it has one. It is worked out once from the start of
+ * The file and then reused, so loading the file again or evaluating rows against it never has to look at the
+ * Cells to find out what they are. Whether a cell is a number is decided by looking at its characters, nothing
+ * Is thrown for the cells that aren't.
+ */
+public class CSVSchema {
+
+    // How much of the start of a file is looked at to work out its schema
+    private static final long SAMPLE_BYTES = 1 << 16;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Schemas that were already worked out, by file, size and modification time
+    private static final ConcurrentHashMap<String, CSVSchema> cache = new ConcurrentHashMap<>();
+
+    // Where parseNumber(String) puts the characters of a cell, so parsing one allocates nothing
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[32]);
+
+    private final ColumnType[] types;
+    private final String[] header;
+
+    public CSVSchema(ColumnType[] types, String[] header) {
+        this.types = types.clone();
+        this.header = header == null ? null : header.clone();
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public ColumnType getType(int col) {
+        return types[col];
+    }
+
+    public boolean isNumeric(int col) {
+        return types[col] == ColumnType.NUMERIC;
+    }
+
+    public boolean hasHeader() {
+        return header != null;
+    }
+
+    public String[] getHeader() {
+        return header == null ? null : header.clone();
+    }
+
+    // The same schema, except that the columns marked in categorical are categorical
+    CSVSchema withCategorical(boolean[] categorical) {
+        ColumnType[] newTypes = types.clone();
+        for (int j = 0; j < newTypes.length; j++) {
+            if (categorical[j]) {
+                newTypes[j] = ColumnType.CATEGORICAL;
+            }
+        }
+        return new CSVSchema(newTypes, header);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(types) + (header == null ? "" : " " + Arrays.toString(header));
+    }
+
+    // The schema of the file, worked out the first time it is asked for and taken from the cache after that
+    static CSVSchema of(String filePath, FileChannel channel) throws IOException {
+        File file = new File(filePath);
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        CSVSchema schema = cache.get(key);
+        if (schema == null) {
+            schema = infer(channel);
+            if (schema != null) {
+                cache.put(key, schema);
+            }
+        }
+        return schema;
+    }
+
+    // Remembers a schema that had to be corrected while loading, so the next load starts from the correct one
+    static void update(String filePath, CSVSchema schema) {
+        File file = new File(filePath);
+        cache.put(file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified(), schema);
+    }
+
+    /**
+     * Works the schema out from the rows in the first 64 KB of the file, not counting the first row.
+     * A column is numeric if all those cells are numbers. The first row is a header if a numeric column has a
+     * Name in it, or, if no numeric column does but it isn't all numbers, if none of its cells show up again.
+     * Returns null for an empty file.
+     */
+    static CSVSchema infer(FileChannel channel) throws IOException {
+        long end = CSVChunk.nextLine(channel, Math.min(channel.size(), SAMPLE_BYTES));
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        int cols = CSVChunk.countCells(buffer);
+
+        // Read as categories, every distinct value only has to be looked at once
+        ColumnType[] categorical = new ColumnType[cols];
+        Arrays.fill(categorical, ColumnType.CATEGORICAL);
+        CSVChunk sample = new CSVChunk(buffer, new CSVSchema(categorical, null));
+        sample.parse();
+        if (sample.rows == 0) {
+            return null;
+        }
+
+        boolean[] firstNumeric = new boolean[cols];
+        boolean[] restNumeric = new boolean[cols];
+        boolean firstAllNumeric = true;
+        ByteDictionary firstRow = new ByteDictionary();
+        for (int j = 0; j < cols; j++) {
+            ByteDictionary dictionary = sample.dictionaries[j];
+            boolean[] numeric = new boolean[dictionary.size()];
+            for (int code = 0; code < numeric.length; code++) {
+                byte[] value = dictionary.getBytes(code);
+                numeric[code] = !Double.isNaN(parseNumber(value, 0, value.length));
+            }
+
+            firstNumeric[j] = numeric[0];
+            firstAllNumeric &= numeric[0];
+            restNumeric[j] = true;
+            for (int i = 1; i < sample.rows; i++) {
+                restNumeric[j] &= numeric[(int) sample.cells[i * cols + j]];
+            }
+
+            byte[] value = dictionary.getBytes(0);
+            firstRow.add(value, 0, value.length);
+        }
+
+        // With a single row there is nothing to compare the first row to
+        if (sample.rows == 1) {
+            return new CSVSchema(firstNumeric(firstNumeric), null);
+        }
+
+        boolean header = false;
+        for (int j = 0; j < cols; j++) {
+            if (restNumeric[j] && !firstNumeric[j]) {
+                header = true;
+            }
+        }
+        if (!header && !firstAllNumeric) {
+            header = true;
+            for (int i = 1; i < sample.rows && header; i++) {
+                for (int j = 0; j < cols; j++) {
+                    byte[] value = sample.dictionaries[j].getBytes((int) sample.cells[i * cols + j]);
+                    if (firstRow.find(value, 0, value.length) >= 0) {
+                        header = false;
+                        break;
+                    }
+                }
+            }
+        }
+
+        ColumnType[] types = new ColumnType[cols];
+        String[] names = header ? new String[cols] : null;
+        for (int j = 0; j < cols; j++) {
+            types[j] = restNumeric[j] && (header || firstNumeric[j]) ? ColumnType.NUMERIC : ColumnType.CATEGORICAL;
+            if (header) {
+                names[j] = sample.dictionaries[j].get(0);
+            }
+        }
+        return new CSVSchema(types, names);
+    }
+
+    private static ColumnType[] firstNumeric(boolean[] numeric) {
+        ColumnType[] types = new ColumnType[numeric.length];
+        for (int j = 0; j < numeric.length; j++) {
+            types[j] = numeric[j] ? ColumnType.NUMERIC : ColumnType.CATEGORICAL;
+        }
+        return types;
+    }
+
+    // The number the trimmed cell spells, or NaN if it isn't one
+    public static double parseNumber(String cell) {
+        String trimmed = cell.trim();
+        int length = trimmed.length();
+        byte[] bytes = scratch.get();
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+            scratch.set(bytes);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = trimmed.charAt(i);
+            if (c > 0x7F) {
+                // Numbers are ASCII only
+                return Double.NaN;
+            }
+            bytes[i] = (byte) (c >= 'A' && c <= 'Z' ? c + 'a' - 'A' : c);
+        }
+        return parseNumber(bytes, 0, length);
+    }
+
+    /**
+     * The number the lowercased bytes[from, to) spell, or NaN if they don't spell one. Plain decimals with at most
+     * 18 digits and a small enough exponent are computed exactly from their digits, since both the digits and the
+     * Power of ten are exact doubles and a single multiplication or division rounds correctly. The rare spellings
+     * That are left, like "1e300" or "0x1p3", go to Double.parseDouble, which can't return NaN for a lowercased cell,
+     * So NaN is free to mean "not a number".
+     */
+    static double parseNumber(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long digits = 0;
+        int digitCount = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean tooLong = false;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            if (b < '0' || b > '9') {
+                break;
+            }
+            digitCount++;
+            if (significant < 18) {
+                digits = digits * 10 + (b - '0');
+                if (digits != 0) {
+                    significant++;
+                }
+                if (fraction) {
+                    exponent--;
+                }
+            } else {
+                tooLong = true;
+            }
+        }
+        if (digitCount == 0) {
+            return rareNumber(bytes, from, to);
+        }
+
+        if (i < to && bytes[i] == 'e') {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int start = i;
+            int e = 0;
+            for (; i < to && bytes[i] >= '0' && bytes[i] <= '9' && e < 10000; i++) {
+                e = e * 10 + (bytes[i] - '0');
+            }
+            if (i == start) {
+                return Double.NaN;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != to || tooLong || digits > (1L << 53) || exponent < -22 || exponent > 22) {
+            return rareNumber(bytes, from, to);
+        }
+
+        double value = exponent >= 0 ? digits * POWERS_OF_TEN[exponent] : digits / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private static double rareNumber(byte[] bytes, int from, int to) {
+        if (!isJavaNumber(bytes, from, to)) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Whether the lowercased bytes[from, to) are a number Double.parseDouble accepts, so that it is only ever
+     * Called on those and never throws: a sign, digits with at most one decimal point, an "e" exponent and a
+     * "f" or "d" at the end, or after "0x" hex digits with at most one point and a "p" exponent, which is needed.
+     * Dates, IPs, UUIDs and ranges all fail here.
+     */
+    private static boolean isJavaNumber(byte[] bytes, int from, int to) {
+        int i = from;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            i++;
+        }
+        boolean hex = to - i > 2 && bytes[i] == '0' && bytes[i + 1] == 'x';
+        if (hex) {
+            i += 2;
+        }
+        int digits = skipDigits(bytes, i, to, hex);
+        i += digits;
+        if (i < to && bytes[i] == '.') {
+            i++;
+            int fraction = skipDigits(bytes, i, to, hex);
+            i += fraction;
+            digits += fraction;
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        boolean exponent = i < to && bytes[i] == (hex ? 'p' : 'e');
+        if (hex && !exponent) {
+            return false;
+        }
+        if (exponent) {
+            i++;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                i++;
+            }
+            int exponentDigits = skipDigits(bytes, i, to, false);
+            if (exponentDigits == 0) {
+                return false;
+            }
+            i += exponentDigits;
+        }
+        if (i < to && (bytes[i] == 'f' || bytes[i] == 'd')) {
+            i++;
+        }
+        return i == to;
+    }
+
+    // The number of decimal or hex digits starting at from
+    private static int skipDigits(byte[] bytes, int from, int to, boolean hex) {
+        int i = from;
+        while (i < to && ((bytes[i] >= '0' && bytes[i] <= '9') || (hex && bytes[i] >= 'a' && bytes[i] <= 'f'))) {
+            i++;
+        }
+        return i - from;
+    }
+}
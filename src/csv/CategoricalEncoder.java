@@ -0,0 +1,197 @@
+package csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Turns the categories of the input columns of a CSV file into the inputs of a network, either as a single ordinal
+ * Input per column or as one input per category. Numeric columns take up a single input, scaled by the scaler.
+ * It also knows the names of the targets, so it can be saved next to a network and loaded again to evaluate rows
+ * Without the CSV file it was made from.
+ */
+public class CategoricalEncoder {
+
+    private static final int MAGIC = 0x4E4E4345;
+    // Version 1 files have no scaler
+    private static final int VERSION = 2;
+
+    private final Encoding encoding;
+    // The categories of every input column, null for numeric columns
+    private final StringDictionary[] columns;
+    // Where every column starts in an encoded row
+    private final int[] offsets;
+    private final int size;
+    private final String[] targets;
+    // Scales the numeric columns, null if they are used as they are
+    private final Scaler scaler;
+
+    public CategoricalEncoder(Encoding encoding, String[][] categories, String[] targets) {
+        this(encoding, categories, targets, null);
+    }
+
+    /**
+     * @param categories The categories of every input column in the order of their codes, null for numeric columns
+     * @param targets The names of the targets in the order of their indices
+     * @param scaler Scales the numeric columns, null to use them as they are
+     */
+    public CategoricalEncoder(Encoding encoding, String[][] categories, String[] targets, Scaler scaler) {
+        this.encoding = encoding;
+        this.columns = new StringDictionary[categories.length];
+        this.offsets = new int[categories.length];
+        int offset = 0;
+        for (int j = 0; j < categories.length; j++) {
+            offsets[j] = offset;
+            if (categories[j] != null) {
+                columns[j] = new StringDictionary(categories[j]);
+            }
+            offset += getWidth(j);
+        }
+        this.size = offset;
+        this.targets = targets.clone();
+        this.scaler = scaler;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    // The number of input columns
+    public int getColumns() {
+        return columns.length;
+    }
+
+    // The number of inputs an encoded row has
+    public int getEncodedSize() {
+        return size;
+    }
+
+    public boolean isCategorical(int col) {
+        return columns[col] != null;
+    }
+
+    public int getCategories(int col) {
+        return columns[col] == null ? 0 : columns[col].size();
+    }
+
+    public String getCategory(int col, int code) {
+        return columns[col].get(code);
+    }
+
+    // Where col starts in an encoded row
+    public int getOffset(int col) {
+        return offsets[col];
+    }
+
+    // How many inputs col takes up in an encoded row
+    public int getWidth(int col) {
+        return columns[col] != null && encoding == Encoding.ONE_HOT ? columns[col].size() : 1;
+    }
+
+    public Scaler getScaler() {
+        return scaler;
+    }
+
+    public int getTargetCount() {
+        return targets.length;
+    }
+
+    public String getTarget(int index) {
+        return targets[index];
+    }
+
+    public String[] getTargets() {
+        return targets.clone();
+    }
+
+    /**
+     * The code of value in col, or -1 if col has no such category. Values are looked up as they are first and
+     * Only lowercased and trimmed, the way the cells of the file were, if that doesn't find them.
+     */
+    public int code(int col, String value) {
+        int code = columns[col].find(value);
+        if (code < 0) {
+            code = columns[col].find(value.toLowerCase().trim());
+        }
+        return code;
+    }
+
+    // Writes the category with the given code of col into its place in the encoded row out
+    public void encode(int col, int code, double[] out) {
+        int offset = offsets[col];
+        if (encoding == Encoding.ONE_HOT) {
+            int width = columns[col].size();
+            for (int k = 0; k < width; k++) {
+                out[offset + k] = 0;
+            }
+            out[offset + code] = 1;
+        } else {
+            out[offset] = (code + 1) / (double) columns[col].size();
+        }
+    }
+
+    // Writes the scaled value of the numeric column col into its place in the encoded row out
+    public void encodeNumber(int col, double value, double[] out) {
+        out[offsets[col]] = scaler == null ? value : scaler.scale(col, value);
+    }
+
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(encoding.name());
+            out.writeInt(columns.length);
+            for (StringDictionary column : columns) {
+                if (column == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(column.size());
+                    for (int code = 0; code < column.size(); code++) {
+                        out.writeUTF(column.get(code));
+                    }
+                }
+            }
+            out.writeInt(targets.length);
+            for (String target : targets) {
+                out.writeUTF(target);
+            }
+            out.writeBoolean(scaler != null);
+            if (scaler != null) {
+                scaler.write(out);
+            }
+        }
+    }
+
+    public static CategoricalEncoder load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(fileName + " is not an encoder file");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unknown encoder file version " + version + " in " + fileName);
+            }
+            Encoding encoding = Encoding.valueOf(in.readUTF());
+            String[][] categories = new String[in.readInt()][];
+            for (int j = 0; j < categories.length; j++) {
+                int count = in.readInt();
+                if (count >= 0) {
+                    categories[j] = new String[count];
+                    for (int code = 0; code < count; code++) {
+                        categories[j][code] = in.readUTF();
+                    }
+                }
+            }
+            String[] targets = new String[in.readInt()];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = in.readUTF();
+            }
+            Scaler scaler = version >= 2 && in.readBoolean() ? Scaler.read(in) : null;
+            return new CategoricalEncoder(encoding, categories, targets, scaler);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package csv;
+
+import java.util.Arrays;
+
+/**
+ * The count, min, max, mean and variance of every column, collected in a single pass over the values.
+ * The mean and variance are updated with Welford's method, so they stay accurate for long columns, and the
+ * Statistics of two parts of a file can be merged into the statistics of both.
+ */
+public class ColumnStatistics {
+
+    private final long[] count;
+    private final double[] min;
+    private final double[] max;
+    private final double[] mean;
+    // The sum of the squared differences from the mean
+    private final double[] m2;
+
+    public ColumnStatistics(int columns) {
+        count = new long[columns];
+        min = new double[columns];
+        max = new double[columns];
+        mean = new double[columns];
+        m2 = new double[columns];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    public int getColumns() {
+        return count.length;
+    }
+
+    public void add(int col, double value) {
+        long n = ++count[col];
+        min[col] = value < min[col] ? value : min[col];
+        max[col] = value > max[col] ? value : max[col];
+        double delta = value - mean[col];
+        mean[col] += delta / n;
+        m2[col] += delta * (value - mean[col]);
+    }
+
+    // Adds the values other has seen to this, as if this had seen them after its own
+    public void merge(ColumnStatistics other) {
+        for (int col = 0; col < count.length; col++) {
+            long n = other.count[col];
+            if (n == 0) {
+                continue;
+            }
+            long total = count[col] + n;
+            double delta = other.mean[col] - mean[col];
+            mean[col] += delta * n / total;
+            m2[col] += other.m2[col] + delta * delta * ((double) count[col] * n / total);
+            min[col] = Math.min(min[col], other.min[col]);
+            max[col] = Math.max(max[col], other.max[col]);
+            count[col] = total;
+        }
+    }
+
+    public long getCount(int col) {
+        return count[col];
+    }
+
+    public double getMin(int col) {
+        return min[col];
+    }
+
+    public double getMax(int col) {
+        return max[col];
+    }
+
+    public double getMean(int col) {
+        return mean[col];
+    }
+
+    // The population variance
+    public double getVariance(int col) {
+        return count[col] == 0 ? 0 : m2[col] / count[col];
+    }
+
+    public double getStandardDeviation(int col) {
+        return Math.sqrt(getVariance(col));
+    }
+}
@@ -0,0 +1,8 @@
+package csv;
+
+public enum ColumnType {
+    // Every cell is a number, which is used as it is
+    NUMERIC,
+    // The cells are names, which are replaced by the order in which they first show up
+    CATEGORICAL
+}
@@ -0,0 +1,8 @@
+package csv;
+
+public enum Encoding {
+    // A category becomes a single input, its code + 1 divided by the number of categories of its column
+    ORDINAL,
+    // A category becomes one input per category of its column, 1 for its own and 0 for the others
+    ONE_HOT
+}
@@ -0,0 +1,319 @@
+package csv;
+
+import neuralnetwork.Network;
+
+/**
+ * Evaluates rows against a network the way CSV.evaluate does, with everything that only depends on the encoder
+ * Worked out once when it is made: the ordinal input of every category is a table lookup and the rows are encoded
+ * Straight into buffers that belong to the calling thread. Once a thread has used it, predicting a row or a batch
+ * Of rows no bigger than before allocates nothing. It can be shared between threads.
+ *
+ * When every input column is categorical there are only so many different rows. compile runs all of them through
+ * The network once and keeps the answers in a table, after which a prediction is a single lookup.
+ */
+public class Predictor {
+
+    // The most rows compile() puts in a table
+    public static final int DEFAULT_MAX_DOMAIN = 1 << 20;
+    // How many rows of the domain go through the network at once while compiling
+    private static final int COMPILE_BLOCK = 4096;
+
+    private final Network network;
+    private final CategoricalEncoder encoder;
+    private final Scaler scaler;
+    private final int columns;
+    private final int inputSize;
+    private final int outputSize;
+    private final boolean oneHot;
+    // The input of every category of every ordinal column, null for the other columns
+    private final double[][] ordinal;
+    private final ThreadLocal<Buffers> buffers;
+    // The target of every row of the domain by its key, null until compiled
+    private volatile int[] table;
+    // What the code of every column is multiplied by in the key of a row, the key is the sum of those
+    private final long[] strides;
+    // The number of different rows, -1 if a column is numeric
+    private final long domain;
+
+    // The encoded row and the outputs of the network for a single row, and for batches, which grow whenever
+    // A bigger batch comes along
+    private static class Buffers {
+        double[] inputs;
+        double[] outputs;
+        double[] batchInputs;
+        double[] batchOutputs;
+    }
+
+    public Predictor(CSV csv, Network network) {
+        this(csv.getEncoder(), network);
+    }
+
+    public Predictor(CategoricalEncoder encoder, Network network) {
+        if (network.INPUT_SIZE != encoder.getEncodedSize() || network.OUTPUT_SIZE != encoder.getTargetCount()) {
+            throw new IllegalArgumentException("The network takes " + network.INPUT_SIZE + " inputs and gives "
+                    + network.OUTPUT_SIZE + " outputs, but the encoder makes " + encoder.getEncodedSize()
+                    + " inputs for " + encoder.getTargetCount() + " targets");
+        }
+        this.network = network;
+        this.encoder = encoder;
+        this.scaler = encoder.getScaler();
+        this.columns = encoder.getColumns();
+        this.inputSize = network.INPUT_SIZE;
+        this.outputSize = network.OUTPUT_SIZE;
+        this.oneHot = encoder.getEncoding() == Encoding.ONE_HOT;
+
+        this.ordinal = new double[columns][];
+        double[] row = new double[inputSize];
+        for (int col = 0; col < columns; col++) {
+            if (encoder.isCategorical(col) && !oneHot) {
+                ordinal[col] = new double[encoder.getCategories(col)];
+                for (int code = 0; code < ordinal[col].length; code++) {
+                    encoder.encode(col, code, row);
+                    ordinal[col][code] = row[encoder.getOffset(col)];
+                }
+            }
+        }
+
+        this.strides = new long[columns];
+        long stride = 1;
+        for (int col = columns - 1; col >= 0; col--) {
+            strides[col] = stride;
+            // A numeric column has no domain, so no table can be made
+            stride = encoder.isCategorical(col) && stride >= 0 ? stride * encoder.getCategories(col) : -1;
+            // Anything past the int range is too big for a table anyway, stopping there keeps the product in range
+            stride = Math.min(stride, Integer.MAX_VALUE + 1L);
+        }
+        this.domain = stride;
+
+        this.buffers = ThreadLocal.withInitial(() -> {
+            Buffers b = new Buffers();
+            b.inputs = new double[inputSize];
+            b.outputs = new double[outputSize];
+            b.batchInputs = b.inputs;
+            b.batchOutputs = b.outputs;
+            return b;
+        });
+    }
+
+    public CategoricalEncoder getEncoder() {
+        return encoder;
+    }
+
+    // The number of different rows there are, at most 2^31, or -1 if there is a numeric column
+    public long getDomainSize() {
+        return domain;
+    }
+
+    public boolean isCompiled() {
+        return table != null;
+    }
+
+    public boolean compile() {
+        return compile(DEFAULT_MAX_DOMAIN);
+    }
+
+    /**
+     * Works out the target of every possible row and keeps them in a table that predictions are looked up in.
+     * Nothing is done if there is a numeric column or there are more than maxDomainSize different rows, then the
+     * Network keeps being asked. Returns whether there is a table now.
+     * The table is only correct for the network as it is, so compile again after training it further.
+     */
+    public boolean compile(int maxDomainSize) {
+        if (domain < 0 || domain > maxDomainSize) {
+            return false;
+        }
+        int size = (int) domain;
+        int[] newTable = new int[size];
+        double[] inputs = new double[COMPILE_BLOCK * inputSize];
+        double[] outputs = new double[COMPILE_BLOCK * outputSize];
+        for (int from = 0; from < size; from += COMPILE_BLOCK) {
+            int rows = Math.min(COMPILE_BLOCK, size - from);
+            for (int r = 0; r < rows; r++) {
+                int key = from + r;
+                for (int col = 0; col < columns; col++) {
+                    int code = (int) (key / strides[col] % encoder.getCategories(col));
+                    encodeCategory(col, code, inputs, r * inputSize);
+                }
+            }
+            network.calculateBatch(inputs, rows, outputs);
+            for (int r = 0; r < rows; r++) {
+                newTable[from + r] = highest(outputs, r * outputSize);
+            }
+        }
+        table = newTable;
+        return true;
+    }
+
+    /**
+     * The code of value in the categorical column col, or -1 if it isn't one of its categories.
+     * Rows that are predicted often can be turned into codes once and predicted with predict(double[]).
+     */
+    public int code(int col, String value) {
+        return encoder.code(col, value);
+    }
+
+    // The index of the target the network picks for a row of cells, the same cells evaluate takes
+    public int predict(String[] row) {
+        int[] t = table;
+        if (t != null) {
+            checkLength(row.length);
+            int key = 0;
+            for (int col = 0; col < columns; col++) {
+                key += checkedCode(col, row[col]) * (int) strides[col];
+            }
+            return t[key];
+        }
+        Buffers b = buffers.get();
+        encode(row, b.inputs, 0);
+        network.calculate(b.inputs, b.outputs);
+        return highest(b.outputs, 0);
+    }
+
+    // The name of the target the network picks for a row of cells
+    public String predictTarget(String[] row) {
+        return encoder.getTarget(predict(row));
+    }
+
+    /**
+     * The index of the target the network picks for a row that holds the code of every categorical column
+     * And the unscaled number of every numeric column.
+     */
+    public int predict(double[] row) {
+        int[] t = table;
+        if (t != null) {
+            checkLength(row.length);
+            int key = 0;
+            for (int col = 0; col < columns; col++) {
+                key += checkedCode(col, row[col]) * (int) strides[col];
+            }
+            return t[key];
+        }
+        Buffers b = buffers.get();
+        encode(row, b.inputs, 0);
+        network.calculate(b.inputs, b.outputs);
+        return highest(b.outputs, 0);
+    }
+
+    // Writes the index of the target of every row into results
+    public void predict(String[][] rows, int[] results) {
+        if (table != null) {
+            for (int r = 0; r < rows.length; r++) {
+                results[r] = predict(rows[r]);
+            }
+            return;
+        }
+        Buffers b = reserve(rows.length);
+        for (int r = 0; r < rows.length; r++) {
+            encode(rows[r], b.batchInputs, r * inputSize);
+        }
+        finish(b, rows.length, results);
+    }
+
+    // Writes the index of the target of every row of codes and numbers into results
+    public void predict(double[][] rows, int[] results) {
+        if (table != null) {
+            for (int r = 0; r < rows.length; r++) {
+                results[r] = predict(rows[r]);
+            }
+            return;
+        }
+        Buffers b = reserve(rows.length);
+        for (int r = 0; r < rows.length; r++) {
+            encode(rows[r], b.batchInputs, r * inputSize);
+        }
+        finish(b, rows.length, results);
+    }
+
+    private Buffers reserve(int rows) {
+        Buffers b = buffers.get();
+        if (b.batchInputs.length < rows * inputSize) {
+            b.batchInputs = new double[rows * inputSize];
+            b.batchOutputs = new double[rows * outputSize];
+        }
+        return b;
+    }
+
+    private void finish(Buffers b, int rows, int[] results) {
+        network.calculateBatch(b.batchInputs, rows, b.batchOutputs);
+        for (int r = 0; r < rows; r++) {
+            results[r] = highest(b.batchOutputs, r * outputSize);
+        }
+    }
+
+    private void encode(String[] row, double[] out, int offset) {
+        checkLength(row.length);
+        for (int col = 0; col < columns; col++) {
+            if (encoder.isCategorical(col)) {
+                encodeCategory(col, checkedCode(col, row[col]), out, offset);
+            } else {
+                double number = CSVSchema.parseNumber(row[col]);
+                if (Double.isNaN(number)) {
+                    throw new IllegalArgumentException(row[col] + " is not a number");
+                }
+                encodeNumber(col, number, out, offset);
+            }
+        }
+    }
+
+    // Rows have exactly one cell for every column, longer rows are as much of a mistake as shorter ones
+    private void checkLength(int length) {
+        if (length != columns) {
+            throw new IllegalArgumentException("A row needs " + columns + " cells, not " + length);
+        }
+    }
+
+    private int checkedCode(int col, String value) {
+        int code = encoder.code(col, value);
+        if (code < 0) {
+            throw new IllegalArgumentException(value + " is not a category of column " + col);
+        }
+        return code;
+    }
+
+    // The code of a categorical column in a row of codes, which has to be one of the codes of the column
+    private int checkedCode(int col, double code) {
+        if (!(code >= 0 && code < encoder.getCategories(col)) || code != (int) code) {
+            throw new IllegalArgumentException(code + " is not a code of column " + col);
+        }
+        return (int) code;
+    }
+
+    private void encode(double[] row, double[] out, int offset) {
+        checkLength(row.length);
+        for (int col = 0; col < columns; col++) {
+            if (encoder.isCategorical(col)) {
+                encodeCategory(col, checkedCode(col, row[col]), out, offset);
+            } else {
+                encodeNumber(col, row[col], out, offset);
+            }
+        }
+    }
+
+    private void encodeCategory(int col, int code, double[] out, int offset) {
+        int start = offset + encoder.getOffset(col);
+        if (oneHot) {
+            int width = encoder.getWidth(col);
+            for (int k = 0; k < width; k++) {
+                out[start + k] = 0;
+            }
+            out[start + code] = 1;
+        } else {
+            out[start] = ordinal[col][code];
+        }
+    }
+
+    private void encodeNumber(int col, double value, double[] out, int offset) {
+        out[offset + encoder.getOffset(col)] = scaler == null ? value : scaler.scale(col, value);
+    }
+
+    // The index of the highest of the outputSize values starting at from
+    private int highest(double[] outputs, int from) {
+        int index = 0;
+        for (int i = 1; i < outputSize; i++) {
+            if (outputs[from + i] > outputs[from + index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,79 @@
+package csv;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Brings the values of numeric columns into the range a network works well with. Every column has its own scale
+ * And offset, so scaling a value is a single multiply-add and never needs the rest of the column again.
+ */
+public class Scaler {
+
+    private final double[] scale;
+    private final double[] offset;
+
+    public Scaler(double[] scale, double[] offset) {
+        this.scale = scale.clone();
+        this.offset = offset.clone();
+    }
+
+    // A scaler that does the given kind of scaling for the columns the statistics were collected for
+    public static Scaler fit(ColumnStatistics statistics, Scaling scaling) {
+        int columns = statistics.getColumns();
+        double[] scale = new double[columns];
+        double[] offset = new double[columns];
+        for (int col = 0; col < columns; col++) {
+            double range;
+            double from;
+            switch (scaling) {
+                case MIN_MAX:
+                    from = statistics.getMin(col);
+                    range = statistics.getMax(col) - from;
+                    break;
+                case STANDARD:
+                    from = statistics.getMean(col);
+                    range = statistics.getStandardDeviation(col);
+                    break;
+                default:
+                    from = 0;
+                    range = statistics.getMax(col);
+                    break;
+            }
+            // A column that never changes, or was never seen, is only moved
+            if (range == 0 || statistics.getCount(col) == 0 || !Double.isFinite(range)) {
+                range = 1;
+            }
+            scale[col] = 1 / range;
+            offset[col] = -from / range;
+        }
+        return new Scaler(scale, offset);
+    }
+
+    public int getColumns() {
+        return scale.length;
+    }
+
+    public double scale(int col, double value) {
+        return value * scale[col] + offset[col];
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(scale.length);
+        for (int col = 0; col < scale.length; col++) {
+            out.writeDouble(scale[col]);
+            out.writeDouble(offset[col]);
+        }
+    }
+
+    static Scaler read(DataInputStream in) throws IOException {
+        int columns = in.readInt();
+        double[] scale = new double[columns];
+        double[] offset = new double[columns];
+        for (int col = 0; col < columns; col++) {
+            scale[col] = in.readDouble();
+            offset[col] = in.readDouble();
+        }
+        return new Scaler(scale, offset);
+    }
+}
@@ -0,0 +1,10 @@
+package csv;
+
+public enum Scaling {
+    // Divided by the largest value of the column, the way columns have always been normalized
+    MAX,
+    // Moved and stretched so the column goes from 0 to 1
+    MIN_MAX,
+    // Moved and stretched so the column has a mean of 0 and a standard deviation of 1
+    STANDARD
+}
@@ -0,0 +1,64 @@
+package csv;
+
+import java.util.Arrays;
+
+/**
+ * A fixed set of Strings and their codes, the position they were given in. It is an open addressing table with
+ * Linear probing that uses the hash codes Strings cache, so looking a value up allocates nothing.
+ */
+class StringDictionary {
+
+    private final String[] values;
+    // code + 1 of the value in every slot, 0 for an empty one
+    private final int[] table;
+
+    StringDictionary(String[] values) {
+        this.values = values.clone();
+        int length = 16;
+        while (length < values.length * 2) {
+            length *= 2;
+        }
+        this.table = new int[length];
+        int mask = length - 1;
+        for (int code = 0; code < values.length; code++) {
+            int slot = spread(values[code].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    String get(int code) {
+        return values[code];
+    }
+
+    String[] getValues() {
+        return values.clone();
+    }
+
+    // The code of value, or -1 if it isn't one of them
+    int find(String value) {
+        int mask = table.length - 1;
+        for (int slot = spread(value.hashCode()) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int code = table[slot] - 1;
+            if (values[code].equals(value)) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,93 @@
+package neuralnetwork;
+
+/**
+ * The function a layer applies to the weighted sum of every neuron.
+ * The derivative is always written in terms of the output of the function, since that is
+ * What the network keeps around after the forward pass.
+ */
+public enum Activation {
+
+    SIGMOID {
+        double apply(double x) {
+            return 1d / (1 + Math.exp(-x));
+        }
+
+        double derivative(double output) {
+            return output * (1 - output);
+        }
+    },
+
+    // Sigmoid read from a table with linear interpolation, off by less than 3e-6 from SIGMOID everywhere
+    FAST_SIGMOID {
+        double apply(double x) {
+            return FastSigmoid.apply(x);
+        }
+
+        double derivative(double output) {
+            return output * (1 - output);
+        }
+    },
+
+    TANH {
+        double apply(double x) {
+            return Math.tanh(x);
+        }
+
+        double derivative(double output) {
+            return 1 - output * output;
+        }
+    },
+
+    RELU {
+        double apply(double x) {
+            return x > 0 ? x : 0;
+        }
+
+        double derivative(double output) {
+            return output > 0 ? 1 : 0;
+        }
+    },
+
+    LEAKY_RELU {
+        double apply(double x) {
+            return x > 0 ? x : LEAK * x;
+        }
+
+        double derivative(double output) {
+            return output > 0 ? 1 : LEAK;
+        }
+    };
+
+    // The slope of LEAKY_RELU for negative inputs
+    private static final double LEAK = 0.01;
+
+    abstract double apply(double x);
+
+    abstract double derivative(double output);
+
+    private static class FastSigmoid {
+        // The table covers [-RANGE, RANGE] in steps of 1 / STEPS, outside of that sigmoid is within 1.2e-7 of 0 or 1
+        private static final int RANGE = 16;
+        private static final int STEPS = 64;
+        private static final double[] TABLE = new double[2 * RANGE * STEPS + 2];
+
+        static {
+            for (int i = 0; i < TABLE.length; i++) {
+                TABLE[i] = 1d / (1 + Math.exp(-((double) i / STEPS - RANGE)));
+            }
+        }
+
+        static double apply(double x) {
+            if (x <= -RANGE) {
+                return 0;
+            }
+            if (x >= RANGE) {
+                return 1;
+            }
+            double pos = (x + RANGE) * STEPS;
+            int index = (int) pos;
+            double frac = pos - index;
+            return TABLE[index] + frac * (TABLE[index + 1] - TABLE[index]);
+        }
+    }
+}
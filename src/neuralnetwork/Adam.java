@@ -0,0 +1,47 @@
+package neuralnetwork;
+
+/**
+ * Keeps running averages of the gradients (first moment) and of their squares (second moment)
+ * And steps along the first divided by the square root of the second, both corrected for starting at 0.
+ * Works best with much smaller learning rates than plain gradient descent, something like 0.001 to 0.01.
+ */
+public class Adam extends Optimizer {
+
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+
+    public Adam() {
+        this(0.9, 0.999, 1e-8);
+    }
+
+    public Adam(double beta1, double beta2, double epsilon) {
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    int stateBuffers() {
+        return 2;
+    }
+
+    @Override
+    void update(double[] params, double[] gradients, double scale, double[][] state, double lr, long step) {
+        double[] m = state[0];
+        double[] v = state[1];
+        double correction1 = 1 - Math.pow(beta1, step);
+        double correction2 = 1 - Math.pow(beta2, step);
+        for (int i = 0; i < params.length; i++) {
+            double g = gradients[i] * scale;
+            m[i] = beta1 * m[i] + (1 - beta1) * g;
+            v[i] = beta2 * v[i] + (1 - beta2) * g * g;
+            params[i] -= lr * (m[i] / correction1) / (Math.sqrt(v[i] / correction2) + epsilon);
+        }
+    }
+
+    @Override
+    double[] getParameters() {
+        return new double[]{beta1, beta2, epsilon};
+    }
+}
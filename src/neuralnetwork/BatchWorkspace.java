@@ -0,0 +1,45 @@
+package neuralnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Scratch buffers for running a whole batch through a network at once.
+ * Every buffer of a layer holds one row per sample, so outputs[layer][row * size + neuron]
+ * Is the output of neuron for the sample at row. The gradients use the same layout as the weights.
+ */
+class BatchWorkspace {
+
+    final int capacity;
+    final double[][] outputs;
+    final double[][] outputs_derivative;
+    final double[][] errors;
+    final double[][] weightGradients;
+    final double[][] biasGradients;
+
+    BatchWorkspace(int[] layerSizes, int capacity) {
+        this.capacity = capacity;
+        int networkSize = layerSizes.length;
+        this.outputs = new double[networkSize][];
+        this.outputs_derivative = new double[networkSize][];
+        this.errors = new double[networkSize][];
+        this.weightGradients = new double[networkSize][];
+        this.biasGradients = new double[networkSize][];
+
+        for (int i = 0; i < networkSize; i++) {
+            this.outputs[i] = new double[capacity * layerSizes[i]];
+            this.outputs_derivative[i] = new double[capacity * layerSizes[i]];
+            this.errors[i] = new double[capacity * layerSizes[i]];
+            this.biasGradients[i] = new double[layerSizes[i]];
+            if (i > 0) {
+                this.weightGradients[i] = new double[layerSizes[i] * layerSizes[i-1]];
+            }
+        }
+    }
+
+    void clearGradients() {
+        for (int i = 1; i < weightGradients.length; i++) {
+            Arrays.fill(weightGradients[i], 0);
+            Arrays.fill(biasGradients[i], 0);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package neuralnetwork;
+
+import trainset.TrainSet;
+
+import java.util.Arrays;
+
+/**
+ * The same network as Network, but with every weight, bias and activation stored as a float.
+ * This halves the memory and the memory bandwidth needed for every dot product.
+ * When accumulateInDouble is set the sums inside the dot products are kept in a double,
+ * Which is slower but loses less precision on wide layers.
+ * Models are saved and loaded through Network, so the two can load each other's files.
+ */
+public class FloatNetwork {
+
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    // Same row-major layout as the weights of Network
+    private float[][] weights;
+    private float[][] bias;
+    private Activation[] activations;
+    private float learningRate;
+    private boolean accumulateInDouble;
+
+    // The per sample outputs, derivatives and errors, one set for every thread
+    private final ThreadLocal<float[][][]> localWorkspace;
+
+    public final int[] NETWORK_LAYER_SIZE;
+    public final int INPUT_SIZE;
+    public final int OUTPUT_SIZE;
+    public final int NETWORK_SIZE;
+
+    public FloatNetwork(int... NETWORK_LAYER_SIZE) {
+        this.NETWORK_LAYER_SIZE = NETWORK_LAYER_SIZE;
+        this.INPUT_SIZE = this.NETWORK_LAYER_SIZE[0];
+        this.NETWORK_SIZE = this.NETWORK_LAYER_SIZE.length;
+        this.OUTPUT_SIZE = this.NETWORK_LAYER_SIZE[this.NETWORK_SIZE-1];
+
+        this.weights = new float[NETWORK_SIZE][];
+        this.bias = new float[NETWORK_SIZE][];
+        this.activations = new Activation[NETWORK_SIZE];
+        Arrays.fill(this.activations, Activation.SIGMOID);
+        this.learningRate = 0.3f;
+        this.accumulateInDouble = false;
+        this.localWorkspace = ThreadLocal.withInitial(this::createWorkspace);
+
+        // Initialized the same way as Network, the random numbers are just rounded to floats
+        for (int i = 0; i < NETWORK_SIZE; i++) {
+            this.bias[i] = toFloat(NetworkTools.createRandomArray(NETWORK_LAYER_SIZE[i], -0.5, 0.7));
+            if (i > 0) {
+                this.weights[i] = toFloat(NetworkTools.createRandomArray(NETWORK_LAYER_SIZE[i] * NETWORK_LAYER_SIZE[i-1], -1.0, 1.0));
+            }
+        }
+    }
+
+    public static FloatNetwork fromNetwork(Network network) {
+        FloatNetwork ne = new FloatNetwork(network.NETWORK_LAYER_SIZE.clone());
+        for (int i = 1; i < ne.NETWORK_SIZE; i++) {
+            ne.weights[i] = toFloat(network.getWeights(i));
+            ne.bias[i] = toFloat(network.getBias(i));
+            ne.activations[i] = network.getActivation(i);
+        }
+        ne.learningRate = (float) network.getLearningRate();
+        return ne;
+    }
+
+    public Network toNetwork() {
+        Network ne = new Network(NETWORK_LAYER_SIZE.clone());
+        ne.setLearningRate(learningRate);
+        for (int i = 1; i < NETWORK_SIZE; i++) {
+            double[] w = ne.getWeights(i);
+            double[] b = ne.getBias(i);
+            ne.setActivation(i, activations[i]);
+            for (int k = 0; k < w.length; k++) {
+                w[k] = weights[i][k];
+            }
+            for (int k = 0; k < b.length; k++) {
+                b[k] = bias[i][k];
+            }
+        }
+        return ne;
+    }
+
+    private static float[] toFloat(double[] array) {
+        float[] arr = new float[array.length];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = (float) array[i];
+        }
+        return arr;
+    }
+
+    // [0] are the outputs, [1] the derivatives and [2] the errors of every layer
+    private float[][][] createWorkspace() {
+        float[][][] ws = new float[3][NETWORK_SIZE][];
+        for (int i = 0; i < NETWORK_SIZE; i++) {
+            ws[0][i] = new float[NETWORK_LAYER_SIZE[i]];
+            ws[1][i] = new float[NETWORK_LAYER_SIZE[i]];
+            ws[2][i] = new float[NETWORK_LAYER_SIZE[i]];
+        }
+        return ws;
+    }
+
+    public float[] calculate(float... inputs) {
+        if (inputs.length != INPUT_SIZE) {
+            return null;
+        }
+        return calculate(inputs, new float[OUTPUT_SIZE]);
+    }
+
+    /**
+     * Writes the outputs into out and returns it, nothing is allocated once the calling thread has been here before.
+     */
+    public float[] calculate(float[] inputs, float[] out) {
+        if (inputs.length != INPUT_SIZE || out.length != OUTPUT_SIZE) {
+            return null;
+        }
+        float[][][] ws = localWorkspace.get();
+        forward(inputs, ws);
+        System.arraycopy(ws[0][NETWORK_SIZE-1], 0, out, 0, OUTPUT_SIZE);
+        return out;
+    }
+
+    // So that a FloatNetwork can be tested on the same TrainSets as a Network
+    public double[] calculate(double[] inputs) {
+        if (inputs.length != INPUT_SIZE) {
+            return null;
+        }
+        float[] out = calculate(toFloat(inputs), new float[OUTPUT_SIZE]);
+        double[] res = new double[OUTPUT_SIZE];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = out[i];
+        }
+        return res;
+    }
+
+    private void forward(float[] inputs, float[][][] ws) {
+        float[][] outputs = ws[0];
+        float[][] outputs_derivative = ws[1];
+        System.arraycopy(inputs, 0, outputs[0], 0, INPUT_SIZE);
+
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            float[] w = weights[layer];
+            float[] prevOutputs = outputs[layer-1];
+            float[] layerOutputs = outputs[layer];
+            Activation activation = activations[layer];
+            int prevSize = NETWORK_LAYER_SIZE[layer-1];
+
+            for (int neuron = 0, row = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++, row += prevSize) {
+                float sum;
+                if (accumulateInDouble) {
+                    sum = (float) (bias[layer][neuron] + KERNELS.dotInDouble(prevOutputs, 0, w, row, prevSize));
+                } else {
+                    sum = bias[layer][neuron] + KERNELS.dot(prevOutputs, 0, w, row, prevSize);
+                }
+                float o = (float) activation.apply(sum);
+                layerOutputs[neuron] = o;
+                outputs_derivative[layer][neuron] = (float) activation.derivative(o);
+            }
+        }
+    }
+
+    public void train(TrainSet set, int loops, int batchSize) {
+
+        // If the input and target size are not what we expect then the data is not usable and we can't work with it
+        if (set.INPUT_SIZE != INPUT_SIZE || set.OUTPUT_SIZE != OUTPUT_SIZE) return;
+
+        float[] inputs = new float[INPUT_SIZE];
+        float[] targets = new float[OUTPUT_SIZE];
+        for (int i = 0; i < loops; i++) {
+            TrainSet batch = set.extractBatch(batchSize);
+            double[] in = batch.getInputData();
+            double[] out = batch.getOutputData();
+            int[] labels = batch.getLabelData();
+            for (int b = 0; b < batch.size(); b++) {
+                int row = batch.rowIndex(b);
+                for (int k = 0; k < INPUT_SIZE; k++) {
+                    inputs[k] = (float) in[row * INPUT_SIZE + k];
+                }
+                for (int k = 0; k < OUTPUT_SIZE; k++) {
+                    // Sets with labels only store the class of the row
+                    targets[k] = out != null ? (float) out[row * OUTPUT_SIZE + k] : (k == labels[row] ? 1f : 0f);
+                }
+                this.train(inputs, targets, learningRate);
+            }
+        }
+    }
+
+    public void train(float[] inputs, float[] targets, float learningRate) {
+        // Training won't work if the input size and target size are unexpected
+        if (targets.length != OUTPUT_SIZE || inputs.length != INPUT_SIZE) {
+            return;
+        }
+        float[][][] ws = localWorkspace.get();
+        float[][] outputs = ws[0];
+        float[][] outputs_derivative = ws[1];
+        float[][] errors = ws[2];
+        forward(inputs, ws);
+
+        // Errors of the output layer
+        int last = NETWORK_SIZE - 1;
+        for (int neuron = 0; neuron < OUTPUT_SIZE; neuron++) {
+            errors[last][neuron] = (outputs[last][neuron] - targets[neuron]) * outputs_derivative[last][neuron];
+        }
+
+        // Errors of the hidden layers, walking the weights row by row like Network does
+        for (int layer = NETWORK_SIZE - 2; layer > 0; layer--) {
+            float[] w = weights[layer+1];
+            float[] layerErrors = errors[layer];
+            float[] nextErrors = errors[layer+1];
+            int size = NETWORK_LAYER_SIZE[layer];
+
+            Arrays.fill(layerErrors, 0);
+            for (int nextNeuron = 0, row = 0; nextNeuron < NETWORK_LAYER_SIZE[layer+1]; nextNeuron++, row += size) {
+                KERNELS.axpy(nextErrors[nextNeuron], w, row, layerErrors, 0, size);
+            }
+            for (int neuron = 0; neuron < size; neuron++) {
+                layerErrors[neuron] *= outputs_derivative[layer][neuron];
+            }
+        }
+
+        // New weights
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            float[] w = weights[layer];
+            float[] prevOutputs = outputs[layer-1];
+            int prevSize = NETWORK_LAYER_SIZE[layer-1];
+
+            for (int neuron = 0, row = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++, row += prevSize) {
+                float delta = -1 * learningRate * errors[layer][neuron];
+                bias[layer][neuron] += delta;
+                KERNELS.axpy(delta, prevOutputs, 0, w, row, prevSize);
+            }
+        }
+    }
+
+    public Activation getActivation(int layer) {
+        return activations[layer];
+    }
+
+    public void setActivation(int layer, Activation activation) {
+        if (layer > 0 && layer < NETWORK_SIZE && activation != null) {
+            activations[layer] = activation;
+        }
+    }
+
+    public float getLearningRate() {
+        return learningRate;
+    }
+
+    public void setLearningRate(float learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public boolean isAccumulateInDouble() {
+        return accumulateInDouble;
+    }
+
+    public void setAccumulateInDouble(boolean accumulateInDouble) {
+        this.accumulateInDouble = accumulateInDouble;
+    }
+
+    // Saved as the Network it converts to, floats are exact doubles so nothing is lost
+    public void saveNetwork(String fileName) throws Exception {
+        toNetwork().saveNetwork(fileName);
+    }
+
+    // Loads files written by either FloatNetwork or Network, text or binary, a double model simply gets rounded to floats
+    public static FloatNetwork loadNetwork(String fileName) throws Exception {
+        return fromNetwork(Network.loadNetwork(fileName));
+    }
+}
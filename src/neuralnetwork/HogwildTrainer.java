@@ -0,0 +1,95 @@
+package neuralnetwork;
+
+import trainset.EpochSampler;
+import trainset.TrainSet;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Gives every thread a shard of the set of its own for a whole training run. Every thread then runs the usual
+ * Calculate, backpropError and updateWeights cycle on batches from its shard with its own workspace, so the
+ * Threads only wait for each other once at the end of the run instead of after every batch.
+ * The weights are written without any locking. When two threads update the same weight at the
+ * Same time one of the updates can get lost, which for sparse inputs rarely happens and does not
+ * Hurt the training, but it also means that the results are not repeatable.
+ */
+class HogwildTrainer {
+
+    private final Network network;
+    private final int threads;
+    private final ForkJoinPool pool;
+    private final Workspace[] workspaces;
+
+    HogwildTrainer(Network network, int threads) {
+        this.network = network;
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+        this.workspaces = new Workspace[threads];
+        for (int i = 0; i < threads; i++) {
+            workspaces[i] = new Workspace(network.NETWORK_LAYER_SIZE);
+        }
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Trains on loops batches of batchSize rows, or of the whole set when batchSize is not in 1..set.size(),
+     * The same as that many extractBatch calls would. Every thread takes its share of each batch from its own shard.
+     * Returns the mean loss of every loop.
+     */
+    double[] train(TrainSet set, int loops, int batchSize, double learningRate) {
+        int rows = set.size();
+        int batch = batchSize <= 0 || batchSize > rows ? rows : batchSize;
+        int workers = Math.min(threads, batch);
+
+        EpochSampler[] samplers = set.createShardSamplers(workers);
+        double[][] losses = new double[workers][loops];
+        ArrayList<RecursiveAction> tasks = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            // Shares are spread like the shards, so no share is ever bigger than its shard
+            int share = batch / workers + (w < batch % workers ? 1 : 0);
+            EpochSampler sampler = samplers[w];
+            double[] loss = losses[w];
+            Workspace ws = workspaces[w];
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int i = 0; i < loops; i++) {
+                        TrainSet part = sampler.nextBatch(share);
+                        double[] inputs = part.getInputData();
+                        double[] targets = part.getOutputData();
+                        int[] labels = part.getLabelData();
+                        for (int b = 0; b < part.size(); b++) {
+                            int row = part.rowIndex(b);
+                            loss[i] += network.train(inputs, row * part.INPUT_SIZE, targets, row * part.OUTPUT_SIZE,
+                                    labels != null ? labels[row] : -1, learningRate, ws);
+                        }
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        double[] mean = new double[loops];
+        for (int i = 0; i < loops; i++) {
+            for (int w = 0; w < workers; w++) {
+                mean[i] += losses[w][i];
+            }
+            mean[i] /= batch;
+        }
+        return mean;
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+}
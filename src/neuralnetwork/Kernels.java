@@ -0,0 +1,46 @@
+package neuralnetwork;
+
+/**
+ * The inner loops of the network: the dot product of the forward pass and the y += alpha * x
+ * Used by the backward pass and the weight update, for doubles and for the floats of FloatNetwork.
+ *
+ * When VectorKernels from src-vector was compiled next to these classes and the JVM runs with
+ * --add-modules jdk.incubator.vector the loops use the Vector API, otherwise they fall back to plain scalar loops.
+ * axpy gives exactly the same results either way.
+ * dot adds the products up in a different order, so the two can differ by rounding, at most by about
+ * len * 2^-53 * (|a[0]*b[0]| + ... + |a[len-1]*b[len-1]|), which for our layer sizes is far below 1e-12.
+ */
+abstract class Kernels {
+
+    static final Kernels INSTANCE = create();
+
+    private static Kernels create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so that this class still works when the module or the class is missing
+                return (Kernels) Class.forName("neuralnetwork.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall through to the scalar kernels
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    abstract double dot(double[] a, int aOffset, double[] b, int bOffset, int len);
+
+    // y[yOffset + i] += alpha * x[xOffset + i]
+    abstract void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int len);
+
+    abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int len);
+
+    abstract void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int len);
+
+    // The dot product of floats with the sum kept in a double, the same everywhere since it is only there for precision
+    double dotInDouble(float[] a, int aOffset, float[] b, int bOffset, int len) {
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
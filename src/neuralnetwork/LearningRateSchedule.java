@@ -0,0 +1,39 @@
+package neuralnetwork;
+
+/**
+ * Gives the learning rate to use for an epoch, based on the learning rate the training started with.
+ */
+public interface LearningRateSchedule {
+
+    double rate(double baseRate, int epoch, int epochs);
+
+    static LearningRateSchedule constant() {
+        return (baseRate, epoch, epochs) -> baseRate;
+    }
+
+    // Multiplies the rate by factor every stepEpochs epochs
+    static LearningRateSchedule stepDecay(double factor, int stepEpochs) {
+        if (stepEpochs <= 0) {
+            throw new IllegalArgumentException("stepEpochs has to be positive, not " + stepEpochs);
+        }
+        return (baseRate, epoch, epochs) -> baseRate * Math.pow(factor, epoch / stepEpochs);
+    }
+
+    // Goes from the base rate down to minRate along half a cosine wave over all the epochs, a single epoch gets the base rate
+    static LearningRateSchedule cosine(double minRate) {
+        return (baseRate, epoch, epochs) -> {
+            double progress = epochs > 1 ? (double) epoch / (epochs - 1) : 0;
+            return minRate + (baseRate - minRate) * (1 + Math.cos(Math.PI * progress)) / 2;
+        };
+    }
+
+    // Grows the rate linearly up to the base rate over the first warmupEpochs epochs, then hands over to after
+    static LearningRateSchedule warmup(int warmupEpochs, LearningRateSchedule after) {
+        return (baseRate, epoch, epochs) -> {
+            if (epoch < warmupEpochs) {
+                return baseRate * (epoch + 1) / (warmupEpochs + 1);
+            }
+            return after.rate(baseRate, epoch - warmupEpochs, epochs - warmupEpochs);
+        };
+    }
+}
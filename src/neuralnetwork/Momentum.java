@@ -0,0 +1,40 @@
+package neuralnetwork;
+
+/**
+ * Gradient descent with momentum, v = momentum * v + g and then params -= lr * v.
+ * With nesterov the step looks ahead along the velocity, params -= lr * (g + momentum * v).
+ */
+public class Momentum extends Optimizer {
+
+    private final double momentum;
+    private final boolean nesterov;
+
+    public Momentum() {
+        this(0.9, false);
+    }
+
+    public Momentum(double momentum, boolean nesterov) {
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+    }
+
+    @Override
+    int stateBuffers() {
+        return 1;
+    }
+
+    @Override
+    void update(double[] params, double[] gradients, double scale, double[][] state, double lr, long step) {
+        double[] v = state[0];
+        for (int i = 0; i < params.length; i++) {
+            double g = gradients[i] * scale;
+            v[i] = momentum * v[i] + g;
+            params[i] -= lr * (nesterov ? g + momentum * v[i] : v[i]);
+        }
+    }
+
+    @Override
+    double[] getParameters() {
+        return new double[]{momentum, nesterov ? 1 : 0};
+    }
+}
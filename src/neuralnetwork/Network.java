@@ -10,16 +10,49 @@ import trainset.TrainSet;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 
 public class Network {
 
-    private double[][] outputs;
-    private double[][][] weights;
+    // The outputs, derivatives and errors used by the single threaded training
+    private final Workspace workspace;
+    // Every thread that calls calculate gets a workspace of its own, so calculate never touches shared state
+    private final ThreadLocal<Workspace> localWorkspace;
+    // Every layer's weights are packed row-major into a single buffer, so the weight connecting
+    // neuron n to prevNeuron p of the previous layer lives at weights[layer][n * NETWORK_LAYER_SIZE[layer-1] + p]
+    private double[][] weights;
     private double[][] bias;
-    private double[][] errors;
-    private double[][] outputs_derivative;
+    // The activation function of every layer, the input layer at index 0 doesn't use one
+    private Activation[] activations;
     private double learningRate;
+    private Optimizer optimizer;
+    // The state the optimizer keeps for every weight and bias, weightStates[layer][k] is the k-th buffer of a layer
+    private double[][][] weightStates;
+    private double[][][] biasStates;
+    // How many updates the optimizer has made so far
+    private long optimizerStep;
+    // The gradients of a single sample, used when an optimizer needs them written out
+    private BatchWorkspace sampleGradients;
+    private TrainingMode trainingMode;
+    private BatchWorkspace batchWorkspace;
+    private ParallelTrainer parallelTrainer;
+    private HogwildTrainer hogwildTrainer;
+    private int threads;
+    private ArrayList<TrainingListener> listeners = new ArrayList<>();
+
+    // Every thread scoring a batch gets its own batch workspace, just like localWorkspace for calculate
+    private final ThreadLocal<BatchWorkspace> localBatchWorkspace;
+
+    // How many weight rows are kept hot in the cache while every sample of a batch is run past them
+    private static final int NEURON_BLOCK = 64;
+    // How many rows calculateBatch runs through the network at once, larger batches are split up between the cores
+    private static final int ROW_BLOCK = 256;
+    // How many rows MSE(TrainSet) scores at once
+    private static final int MSE_BLOCK = 16 * ROW_BLOCK;
+    // SIMD kernels when the Vector API is available, plain loops otherwise
+    private static final Kernels KERNELS = Kernels.INSTANCE;
 
     public final int[] NETWORK_LAYER_SIZE;
     public final int INPUT_SIZE;
@@ -32,52 +65,175 @@ public class Network {
         this.NETWORK_SIZE = this.NETWORK_LAYER_SIZE.length;
         this.OUTPUT_SIZE = this.NETWORK_LAYER_SIZE[this.NETWORK_SIZE-1];
 
-        this.outputs = new double[NETWORK_SIZE][];
-        this.weights = new double[NETWORK_SIZE][][];
+        this.workspace = new Workspace(NETWORK_LAYER_SIZE);
+        this.localWorkspace = ThreadLocal.withInitial(() -> new Workspace(this.NETWORK_LAYER_SIZE));
+        this.localBatchWorkspace = ThreadLocal.withInitial(() -> new BatchWorkspace(this.NETWORK_LAYER_SIZE, ROW_BLOCK));
+        this.weights = new double[NETWORK_SIZE][];
         this.bias = new double[NETWORK_SIZE][];
-        this.errors = new double[NETWORK_SIZE][];
-        this.outputs_derivative = new double[NETWORK_SIZE][];
+        this.activations = new Activation[NETWORK_SIZE];
+        Arrays.fill(this.activations, Activation.SIGMOID);
 
         this.learningRate = 0.3;
+        setOptimizer(new SGD());
+        this.trainingMode = TrainingMode.SGD;
+        this.threads = Runtime.getRuntime().availableProcessors();
         double[] biasBounds = new double[]{-0.5, 0.7};
         double[] weightsBounds = new double[]{-1.0, 1.0};
 
 
         for (int i = 0; i < NETWORK_SIZE; i++) {
-            this.outputs[i] = new double[NETWORK_LAYER_SIZE[i]];
-            this.errors[i] = new double[NETWORK_LAYER_SIZE[i]];
-            this.outputs_derivative[i] = new double[NETWORK_LAYER_SIZE[i]];
             this.bias[i] = NetworkTools.createRandomArray(NETWORK_LAYER_SIZE[i], biasBounds[0], biasBounds[1]);
 
             if(i > 0) {
-                this.weights[i] = NetworkTools.createRandomArray(NETWORK_LAYER_SIZE[i], NETWORK_LAYER_SIZE[i-1], weightsBounds[0], weightsBounds[1]);
+                this.weights[i] = NetworkTools.createRandomArray(NETWORK_LAYER_SIZE[i] * NETWORK_LAYER_SIZE[i-1], weightsBounds[0], weightsBounds[1]);
             }
         }
     }
 
+    /**
+     * Safe to call from any number of threads at once, the weights are only read and the result is a new array.
+     */
     public double[] calculate(double... inputs) {
+        if (inputs.length != INPUT_SIZE) {
+            return null;
+        }
+        return calculate(inputs, new double[OUTPUT_SIZE]);
+    }
+
+    /**
+     * Writes the outputs into out and returns it. Uses a workspace belonging to the calling thread,
+     * So nothing is allocated once a thread has called it before.
+     */
+    public double[] calculate(double[] inputs, double[] out) {
+        return calculate(inputs, out, localWorkspace.get());
+    }
+
+    /**
+     * Writes the outputs into out and returns it, using the caller's workspace as scratch space.
+     * A workspace may only be used by one thread at a time.
+     */
+    public double[] calculate(double[] inputs, double[] out, Workspace ws) {
+        if (inputs.length != INPUT_SIZE || out.length != OUTPUT_SIZE) {
+            return null;
+        }
+        System.arraycopy(calculate(inputs, ws), 0, out, 0, OUTPUT_SIZE);
+        return out;
+    }
+
+    /**
+     * Calculates the outputs for every row of inputs. Small batches are run as one blocked matrix product,
+     * Larger ones are cut into blocks of ROW_BLOCK rows which are shared out between the cores.
+     */
+    public double[][] calculateBatch(double[][] inputs) {
+        for (double[] in : inputs) {
+            if (in.length != INPUT_SIZE) {
+                return null;
+            }
+        }
+        double[][] results = new double[inputs.length][OUTPUT_SIZE];
+        calculateBatch(inputs.length, results, (from, to, ws) -> forwardBatch(inputs, from, to, ws));
+        return results;
+    }
+
+    public double[][] calculateBatch(TrainSet set) {
+        if (set.INPUT_SIZE != INPUT_SIZE) {
+            return null;
+        }
+        double[][] results = new double[set.size()][OUTPUT_SIZE];
+        // Going through slices means sets that live on disk only load one block of rows at a time
+        calculateBatch(set.size(), results, (from, to, ws) -> forwardBatch(set.slice(from, to), 0, to - from, ws));
+        return results;
+    }
+
+    /**
+     * Calculates the outputs for rows rows stored one after another in inputs and writes them one after another
+     * Into outputs, which is returned. Runs on the calling thread in blocks of ROW_BLOCK rows with the thread's own
+     * Batch workspace, so nothing is allocated once the thread has called it before.
+     */
+    public double[] calculateBatch(double[] inputs, int rows, double[] outputs) {
+        if (inputs.length < rows * INPUT_SIZE || outputs.length < rows * OUTPUT_SIZE) {
+            return null;
+        }
+        BatchWorkspace ws = localBatchWorkspace.get();
+        for (int from = 0; from < rows; from += ROW_BLOCK) {
+            int blockRows = Math.min(ROW_BLOCK, rows - from);
+            System.arraycopy(inputs, from * INPUT_SIZE, ws.outputs[0], 0, blockRows * INPUT_SIZE);
+            forwardLayers(blockRows, ws);
+            System.arraycopy(ws.outputs[NETWORK_SIZE-1], 0, outputs, from * OUTPUT_SIZE, blockRows * OUTPUT_SIZE);
+        }
+        return outputs;
+    }
+
+    private interface BlockForward {
+        void forward(int from, int to, BatchWorkspace ws);
+    }
+
+    private void calculateBatch(int rows, double[][] results, BlockForward forward) {
+        if (rows <= ROW_BLOCK) {
+            calculateBlock(0, rows, results, forward);
+            return;
+        }
+
+        ArrayList<RecursiveAction> tasks = new ArrayList<>();
+        for (int from = 0; from < rows; from += ROW_BLOCK) {
+            int start = from;
+            int end = Math.min(from + ROW_BLOCK, rows);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    calculateBlock(start, end, results, forward);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    private void calculateBlock(int from, int to, double[][] results, BlockForward forward) {
+        BatchWorkspace ws = localBatchWorkspace.get();
+        forward.forward(from, to, ws);
+        double[] last = ws.outputs[NETWORK_SIZE-1];
+        for (int r = 0; r < to - from; r++) {
+            System.arraycopy(last, r * OUTPUT_SIZE, results[from + r], 0, OUTPUT_SIZE);
+        }
+    }
+
+    public Workspace createWorkspace() {
+        return new Workspace(NETWORK_LAYER_SIZE);
+    }
+
+    double[] calculate(double[] inputs, Workspace ws) {
         // return if the amount of inputs does not match the amount we are expecting
         if (inputs.length != INPUT_SIZE) {
             return null;
         }
+        return calculate(inputs, 0, ws);
+    }
 
-        // Assign the first layer of the outputs
-        outputs[0] = inputs;
+    // Calculates the outputs for the inputs stored at inputs[offset .. offset + INPUT_SIZE)
+    double[] calculate(double[] inputs, int offset, Workspace ws) {
+        double[][] outputs = ws.outputs;
+        double[][] outputs_derivative = ws.outputs_derivative;
+
+        // Fill the first layer of the outputs
+        System.arraycopy(inputs, offset, outputs[0], 0, INPUT_SIZE);
 
         // Visit every layer
         for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            double[] w = weights[layer];
+            double[] prevOutputs = outputs[layer-1];
+            double[] layerOutputs = outputs[layer];
+            Activation activation = activations[layer];
+            int prevSize = NETWORK_LAYER_SIZE[layer-1];
+
             // Visit every neuron in that layer
-            for (int neuron = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++) {
+            for (int neuron = 0, row = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++, row += prevSize) {
 
-                // Calculate sum for each neuron
+                // Calculate sum for each neuron, the weights of a neuron are one contiguous row of w
 
                 // Since the bias has to be added anyway, we can initialize the sum using the bias
-                double sum = bias[layer][neuron];
-                for (int prevNeuron = 0; prevNeuron < NETWORK_LAYER_SIZE[layer-1]; prevNeuron++) {
-                    sum += outputs[layer-1][prevNeuron] * weights[layer][neuron][prevNeuron];
-                }
-                outputs[layer][neuron] = sigmoid(sum);
-                outputs_derivative[layer][neuron] = outputs[layer][neuron] * (1 - outputs[layer][neuron]);
+                double sum = bias[layer][neuron] + KERNELS.dot(prevOutputs, 0, w, row, prevSize);
+                layerOutputs[neuron] = activation.apply(sum);
+                outputs_derivative[layer][neuron] = activation.derivative(layerOutputs[neuron]);
 
             }
         }
@@ -86,8 +242,54 @@ public class Network {
         return outputs[NETWORK_SIZE-1];
     }
 
-    private double sigmoid(double x) {
-        return 1d / ( 1 + Math.exp(-x));
+    /**
+     * Runs the rows from..to of the set through the network at the same time, filling ws.outputs.
+     * Every layer is a matrix-matrix product of the previous layer's outputs with the weights,
+     * Done in blocks of weight rows so that a block is reused by every sample before moving on.
+     */
+    private void forwardBatch(TrainSet set, int from, int to, BatchWorkspace ws) {
+        int rows = to - from;
+        double[] data = set.getInputData();
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(data, set.rowIndex(from + r) * INPUT_SIZE, ws.outputs[0], r * INPUT_SIZE, INPUT_SIZE);
+        }
+        forwardLayers(rows, ws);
+    }
+
+    private void forwardBatch(double[][] inputs, int from, int to, BatchWorkspace ws) {
+        int rows = to - from;
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(inputs[from + r], 0, ws.outputs[0], r * INPUT_SIZE, INPUT_SIZE);
+        }
+        forwardLayers(rows, ws);
+    }
+
+    private void forwardLayers(int rows, BatchWorkspace ws) {
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            double[] w = weights[layer];
+            double[] b = bias[layer];
+            double[] prevOutputs = ws.outputs[layer-1];
+            double[] layerOutputs = ws.outputs[layer];
+            double[] layerDerivative = ws.outputs_derivative[layer];
+            Activation activation = activations[layer];
+            int size = NETWORK_LAYER_SIZE[layer];
+            int prevSize = NETWORK_LAYER_SIZE[layer-1];
+
+            for (int block = 0; block < size; block += NEURON_BLOCK) {
+                int blockEnd = Math.min(block + NEURON_BLOCK, size);
+                for (int r = 0; r < rows; r++) {
+                    int in = r * prevSize;
+                    int out = r * size;
+                    for (int neuron = block; neuron < blockEnd; neuron++) {
+                        int row = neuron * prevSize;
+                        double sum = b[neuron] + KERNELS.dot(prevOutputs, in, w, row, prevSize);
+                        double o = activation.apply(sum);
+                        layerOutputs[out + neuron] = o;
+                        layerDerivative[out + neuron] = activation.derivative(o);
+                    }
+                }
+            }
+        }
     }
 
     public void train(TrainSet set, int loops, int batchSize) {
@@ -95,45 +297,99 @@ public class Network {
         // If the input and target size are not what we expect then the data is not usable and we can't work with it
         if(set.INPUT_SIZE != INPUT_SIZE || set.OUTPUT_SIZE != OUTPUT_SIZE) return;
 
+        if (trainingMode == TrainingMode.HOGWILD) {
+            // Every thread trains on a shard of its own for all the loops and the threads only meet at the end,
+            // So the listeners hear about the loops once they are all done
+            double[] losses = this.trainHogwild(set, Math.max(loops, 0), batchSize, learningRate);
+            for (int i = 0; i < losses.length; i++) {
+                for (TrainingListener listener : listeners) {
+                    listener.loopFinished(i, losses[i]);
+                }
+            }
+            return;
+        }
+
         // Repeat training procedure loops many times
         for(int i = 0; i < loops; i++) {
             TrainSet batch = set.extractBatch(batchSize);
-
-            // Going through each element of the batch and using that element to train the network
-            for(int b = 0; b < batch.size(); b++) {
-                this.train(batch.getInput(b), batch.getOutput(b), learningRate);
+            double loss;
+
+            if (trainingMode == TrainingMode.MINI_BATCH) {
+                // The whole batch is used for a single update of the weights
+                loss = this.trainBatch(batch, learningRate);
+            } else if (trainingMode == TrainingMode.PARALLEL_BATCH) {
+                // Same as above, but the batch is shared out between the threads
+                loss = this.trainBatchParallel(batch, learningRate);
+            } else {
+                // Going through each element of the batch and using that element to train the network
+                double sumE = 0;
+                double[] inputs = batch.getInputData();
+                double[] targets = batch.getOutputData();
+                int[] labels = batch.getLabelData();
+                for (int b = 0; b < batch.size(); b++) {
+                    int row = batch.rowIndex(b);
+                    sumE += this.train(inputs, row * INPUT_SIZE, targets, row * OUTPUT_SIZE, labels != null ? labels[row] : -1,
+                            learningRate, workspace);
+                }
+                loss = sumE / batch.size();
             }
 
-            // In case the user wants to see the mean squared error at each loop
-            System.out.println(MSE(batch));
+            // In case anyone wants to see the mean squared error at each loop
+            for (TrainingListener listener : listeners) {
+                listener.loopFinished(i, loss);
+            }
         }
     }
 
-    private double MSE(double[] input, double[] target) {
-        if (input.length != INPUT_SIZE || target.length != OUTPUT_SIZE) {
-            return 0.0;
-        }
+    public void addTrainingListener(TrainingListener listener) {
+        listeners.add(listener);
+    }
 
-        // Populating the outputs[][] array so that it has values when we look inside it
-        calculate(input);
+    public void removeTrainingListener(TrainingListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The expected output of a neuron. Dense targets are stored at targets[offset .. offset + OUTPUT_SIZE),
+     * When targets is null the sample has a class label instead and only the neuron of that class should be 1.
+     */
+    private static double target(double[] targets, int offset, int label, int neuron) {
+        if (targets != null) {
+            return targets[offset + neuron];
+        }
+        return neuron == label ? 1d : 0d;
+    }
 
+    private double MSE(double[] output, double[] targets, int offset, int label) {
         double sumE = 0;
         // Definition of MSE is take average of the squares of the error
-        for (int i = 0; i < target.length; i++) {
-            double e = target[i] - outputs[NETWORK_SIZE-1][i];
+        for (int i = 0; i < OUTPUT_SIZE; i++) {
+            double e = target(targets, offset, label, i) - output[i];
             sumE += e*e;
         }
 
-        // Dividing by 2 * target.length because we used the derivative of output to calculate the error,
+        // Dividing by 2 * OUTPUT_SIZE because we used the derivative of output to calculate the error,
         // So when we are calculating MSE we integrate, but since we first squared it, the integration
         // Will be 1/2 times the expression
-        return sumE / (2d * target.length);
+        return sumE / (2d * OUTPUT_SIZE);
     }
 
-    private double MSE(TrainSet set) {
+    // The mean squared error of the network on a whole set, for example a set that is held out from training
+    public double MSE(TrainSet set) {
+        if (set.INPUT_SIZE != INPUT_SIZE || set.OUTPUT_SIZE != OUTPUT_SIZE || set.size() == 0) {
+            return 0.0;
+        }
         double sumE = 0;
-        for (int i = 0; i < set.size(); i++) {
-            sumE += MSE(set.getInput(i), set.getOutput(i));
+        // A block at a time, so the outputs of a huge set never have to be held all at once
+        for (int from = 0; from < set.size(); from += MSE_BLOCK) {
+            TrainSet block = set.slice(from, Math.min(from + MSE_BLOCK, set.size()));
+            double[][] outputs = calculateBatch(block);
+            double[] targets = block.getOutputData();
+            int[] labels = block.getLabelData();
+            for (int i = 0; i < block.size(); i++) {
+                int row = block.rowIndex(i);
+                sumE += MSE(outputs[i], targets, row * OUTPUT_SIZE, labels != null ? labels[row] : -1);
+            }
         }
         // The above logic does not apply for the MSE in a TrainSet since we are already taking that into account
         // When we call the MSE function inside the for loop.
@@ -141,51 +397,335 @@ public class Network {
     }
 
     public void train(double[] inputs, double[] targets, double learningRate) {
+        train(inputs, targets, learningRate, workspace);
+    }
+
+    double train(double[] inputs, double[] targets, double learningRate, Workspace ws) {
         // Training won't work if the input size and target size are unexpected
         if (targets.length != OUTPUT_SIZE || inputs.length != INPUT_SIZE) {
-            return;
+            return 0.0;
         }
+        return train(inputs, 0, targets, 0, -1, learningRate, ws);
+    }
+
+    /**
+     * Trains on the sample stored at inputs[inputOffset ..] and targets[targetOffset ..], or when targets is null
+     * On a sample of class label. Returns the loss of the sample, measured before the weights were updated
+     */
+    double train(double[] inputs, int inputOffset, double[] targets, int targetOffset, int label, double learningRate, Workspace ws) {
         // Populate the outputs[][]
-        calculate(inputs);
+        double[] output = calculate(inputs, inputOffset, ws);
+        double loss = listeners.isEmpty() ? 0.0 : MSE(output, targets, targetOffset, label);
 
         // Populate the errors[][]
-        backpropError(targets);
+        backpropError(targets, targetOffset, label, ws);
 
         // Get new weights
-        updateWeights(learningRate);
+        updateWeights(learningRate, ws);
+        return loss;
+    }
+
+    // Returns the mean loss of the batch
+    public double trainHogwild(TrainSet batch, double learningRate) {
+        return trainHogwild(batch, 1, batch.size(), learningRate)[0];
+    }
+
+    // Runs loops batches of batchSize rows with a single hand-off to the threads, returns the mean loss of every loop
+    private double[] trainHogwild(TrainSet set, int loops, int batchSize, double learningRate) {
+        checkHogwild(optimizer);
+        // Training won't work if the input size and target size are unexpected
+        if (set.INPUT_SIZE != INPUT_SIZE || set.OUTPUT_SIZE != OUTPUT_SIZE || set.size() == 0) {
+            return new double[loops];
+        }
+        if (hogwildTrainer == null || hogwildTrainer.getThreads() != threads) {
+            if (hogwildTrainer != null) {
+                hogwildTrainer.shutdown();
+            }
+            hogwildTrainer = new HogwildTrainer(this, threads);
+        }
+        return hogwildTrainer.train(set, loops, batchSize, learningRate);
+    }
+
+    // Returns the mean loss of the batch, measured before the update
+    public double trainBatch(TrainSet batch, double learningRate) {
+        // Training won't work if the input size and target size are unexpected
+        if (batch.INPUT_SIZE != INPUT_SIZE || batch.OUTPUT_SIZE != OUTPUT_SIZE || batch.size() == 0) {
+            return 0.0;
+        }
+        if (batchWorkspace == null || batchWorkspace.capacity < batch.size()) {
+            batchWorkspace = new BatchWorkspace(NETWORK_LAYER_SIZE, batch.size());
+        }
+        batchWorkspace.clearGradients();
+
+        double loss = accumulateGradients(batch, 0, batch.size(), batchWorkspace);
+        applyGradients(batchWorkspace, learningRate, batch.size());
+        return loss / batch.size();
+    }
+
+    // Returns the mean loss of the batch, measured before the update
+    public double trainBatchParallel(TrainSet batch, double learningRate) {
+        // Training won't work if the input size and target size are unexpected
+        if (batch.INPUT_SIZE != INPUT_SIZE || batch.OUTPUT_SIZE != OUTPUT_SIZE || batch.size() == 0) {
+            return 0.0;
+        }
+        if (parallelTrainer == null || parallelTrainer.getThreads() != threads) {
+            if (parallelTrainer != null) {
+                parallelTrainer.shutdown();
+            }
+            parallelTrainer = new ParallelTrainer(this, threads);
+        }
+        return parallelTrainer.trainBatch(batch, learningRate) / batch.size();
+    }
+
+    /**
+     * Runs the rows from..to of the set forward and backward as a batch and adds their gradients
+     * To ws.weightGradients and ws.biasGradients. The weights themselves are only read.
+     * Returns the summed up loss of the rows, or 0 when nobody listens for it.
+     */
+    double accumulateGradients(TrainSet set, int from, int to, BatchWorkspace ws) {
+        int rows = to - from;
+        forwardBatch(set, from, to, ws);
+
+        // Errors for the output layer, one row per sample
+        int last = NETWORK_SIZE - 1;
+        boolean measureLoss = !listeners.isEmpty();
+        double sumE = 0;
+        double[] targets = set.getOutputData();
+        int[] labels = set.getLabelData();
+        for (int r = 0; r < rows; r++) {
+            int row = set.rowIndex(from + r);
+            int label = labels != null ? labels[row] : -1;
+            int out = r * OUTPUT_SIZE;
+            for (int neuron = 0; neuron < OUTPUT_SIZE; neuron++) {
+                double e = ws.outputs[last][out + neuron] - target(targets, row * OUTPUT_SIZE, label, neuron);
+                ws.errors[last][out + neuron] = e * ws.outputs_derivative[last][out + neuron];
+                if (measureLoss) {
+                    sumE += e * e;
+                }
+            }
+        }
+
+        // Errors for the hidden layers, the same row by row scatter as backpropError for every sample
+        for (int layer = NETWORK_SIZE - 2; layer > 0; layer--) {
+            double[] w = weights[layer+1];
+            double[] layerErrors = ws.errors[layer];
+            double[] nextErrors = ws.errors[layer+1];
+            double[] layerDerivative = ws.outputs_derivative[layer];
+            int size = NETWORK_LAYER_SIZE[layer];
+            int nextSize = NETWORK_LAYER_SIZE[layer+1];
+
+            Arrays.fill(layerErrors, 0, rows * size, 0);
+            for (int r = 0; r < rows; r++) {
+                int err = r * size;
+                for (int nextNeuron = 0, row = 0; nextNeuron < nextSize; nextNeuron++, row += size) {
+                    KERNELS.axpy(nextErrors[r * nextSize + nextNeuron], w, row, layerErrors, err, size);
+                }
+                for (int neuron = 0; neuron < size; neuron++) {
+                    layerErrors[err + neuron] *= layerDerivative[err + neuron];
+                }
+            }
+        }
+
+        // The gradient of a weight matrix is the errors transposed times the previous layer's outputs
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            double[] gw = ws.weightGradients[layer];
+            double[] gb = ws.biasGradients[layer];
+            double[] prevOutputs = ws.outputs[layer-1];
+            double[] layerErrors = ws.errors[layer];
+            int size = NETWORK_LAYER_SIZE[layer];
+            int prevSize = NETWORK_LAYER_SIZE[layer-1];
+
+            for (int r = 0; r < rows; r++) {
+                int in = r * prevSize;
+                for (int neuron = 0, row = 0; neuron < size; neuron++, row += prevSize) {
+                    double e = layerErrors[r * size + neuron];
+                    gb[neuron] += e;
+                    KERNELS.axpy(e, prevOutputs, in, gw, row, prevSize);
+                }
+            }
+        }
+
+        // Same scaling as MSE(double[], double[])
+        return sumE / (2d * OUTPUT_SIZE);
+    }
+
+    /**
+     * Lets the optimizer take one step using the gradients summed up over count samples.
+     */
+    void applyGradients(BatchWorkspace ws, double lr, int count) {
+        double scale = 1d / count;
+        optimizerStep++;
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            optimizer.update(bias[layer], ws.biasGradients[layer], scale, biasStates[layer], lr, optimizerStep);
+            optimizer.update(weights[layer], ws.weightGradients[layer], scale, weightStates[layer], lr, optimizerStep);
+        }
+    }
+
+    // A network with the same layers, activations and a copy of the weights and biases
+    public Network copy() {
+        Network ne = new Network(NETWORK_LAYER_SIZE.clone());
+        ne.activations = activations.clone();
+        ne.setParameters(this);
+        return ne;
+    }
+
+    // Copies the weights and biases of a network with the same layer sizes into this one
+    public void setParameters(Network source) {
+        if (!Arrays.equals(source.NETWORK_LAYER_SIZE, NETWORK_LAYER_SIZE)) {
+            return;
+        }
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            System.arraycopy(source.weights[layer], 0, weights[layer], 0, weights[layer].length);
+            System.arraycopy(source.bias[layer], 0, bias[layer], 0, bias[layer].length);
+        }
+    }
+
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+    // Starts the new optimizer off with empty state
+    public void setOptimizer(Optimizer optimizer) {
+        if (trainingMode == TrainingMode.HOGWILD) {
+            checkHogwild(optimizer);
+        }
+        this.optimizer = optimizer;
+        this.optimizerStep = 0;
+        this.weightStates = new double[NETWORK_SIZE][][];
+        this.biasStates = new double[NETWORK_SIZE][][];
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            weightStates[layer] = new double[optimizer.stateBuffers()][NETWORK_LAYER_SIZE[layer] * NETWORK_LAYER_SIZE[layer-1]];
+            biasStates[layer] = new double[optimizer.stateBuffers()][NETWORK_LAYER_SIZE[layer]];
+        }
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    // The packed weights and the biases of a layer, used when converting between network engines
+    double[] getWeights(int layer) {
+        return weights[layer];
+    }
+
+    double[] getBias(int layer) {
+        return bias[layer];
     }
 
-    private void backpropError(double[] targets) {
+    public Activation getActivation(int layer) {
+        return activations[layer];
+    }
+
+    public void setActivation(int layer, Activation activation) {
+        if (layer > 0 && layer < NETWORK_SIZE && activation != null) {
+            activations[layer] = activation;
+        }
+    }
+
+    // Uses the same activation for every layer
+    public void setActivation(Activation activation) {
+        for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+            setActivation(layer, activation);
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads > 0) {
+            this.threads = threads;
+        }
+    }
+
+    public TrainingMode getTrainingMode() {
+        return trainingMode;
+    }
+
+    public void setTrainingMode(TrainingMode trainingMode) {
+        if (trainingMode == TrainingMode.HOGWILD) {
+            checkHogwild(optimizer);
+        }
+        this.trainingMode = trainingMode;
+    }
+
+    // Hogwild threads can't share the state of an optimizer without locking, so they only ever take plain steps
+    private static void checkHogwild(Optimizer optimizer) {
+        if (!(optimizer instanceof SGD)) {
+            throw new IllegalStateException("Hogwild training only works with plain SGD, not with "
+                    + optimizer.getName());
+        }
+    }
+
+    private void backpropError(double[] targets, int targetOffset, int label, Workspace ws) {
+        double[][] outputs = ws.outputs;
+        double[][] outputs_derivative = ws.outputs_derivative;
+        double[][] errors = ws.errors;
 
         // Calculate errors for the output layer
         // Go through each neuron of the output layer
         for (int neuron = 0; neuron < NETWORK_LAYER_SIZE[NETWORK_SIZE-1]; neuron++) {
-            errors[NETWORK_SIZE-1][neuron] = (outputs[NETWORK_SIZE-1][neuron] - targets[neuron])
+            errors[NETWORK_SIZE-1][neuron] = (outputs[NETWORK_SIZE-1][neuron] - target(targets, targetOffset, label, neuron))
                     * outputs_derivative[NETWORK_SIZE-1][neuron];
         }
 
         // Calculate errors for the neurons in the hidden layers
         for (int layer = NETWORK_SIZE - 2; layer > 0; layer--) {
-            for (int neuron = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++) {
-                double sum = 0;
-                for (int nextNeuron = 0; nextNeuron < NETWORK_LAYER_SIZE[layer+1]; nextNeuron++) {
-                    sum += this.errors[layer+1][nextNeuron] * weights[layer+1][nextNeuron][neuron];
-                }
-                this.errors[layer][neuron] = outputs_derivative[layer][neuron] * sum;
+            double[] w = weights[layer+1];
+            double[] layerErrors = errors[layer];
+            double[] nextErrors = errors[layer+1];
+            int size = NETWORK_LAYER_SIZE[layer];
+
+            // Reading the weights column by column would jump a whole row ahead on every multiply,
+            // So instead we walk the weight buffer row by row and scatter each next neuron's error
+            // Into the sums of all the neurons it is connected to
+            Arrays.fill(layerErrors, 0, size, 0);
+            for (int nextNeuron = 0, row = 0; nextNeuron < NETWORK_LAYER_SIZE[layer+1]; nextNeuron++, row += size) {
+                KERNELS.axpy(nextErrors[nextNeuron], w, row, layerErrors, 0, size);
+            }
+            for (int neuron = 0; neuron < size; neuron++) {
+                layerErrors[neuron] *= outputs_derivative[layer][neuron];
             }
         }
     }
 
-    private void updateWeights(double lr) {
+    private void updateWeights(double lr, Workspace ws) {
+        double[][] outputs = ws.outputs;
+        double[][] errors = ws.errors;
+
+        // Threads training Hogwild style have workspaces of their own, they only ever run with plain SGD
+        if (!(optimizer instanceof SGD)) {
+            if (sampleGradients == null) {
+                sampleGradients = new BatchWorkspace(NETWORK_LAYER_SIZE, 1);
+            }
+            sampleGradients.clearGradients();
+            for (int layer = 1; layer < NETWORK_SIZE; layer++) {
+                int prevSize = NETWORK_LAYER_SIZE[layer-1];
+                for (int neuron = 0, row = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++, row += prevSize) {
+                    sampleGradients.biasGradients[layer][neuron] = errors[layer][neuron];
+                    KERNELS.axpy(errors[layer][neuron], outputs[layer-1], 0, sampleGradients.weightGradients[layer], row, prevSize);
+                }
+            }
+            applyGradients(sampleGradients, lr, 1);
+            return;
+        }
+
         for (int layer = 1; layer < NETWORK_SIZE; layer++) {
-            for (int neuron = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++) {
+            double[] w = weights[layer];
+            double[] prevOutputs = outputs[layer-1];
+            int prevSize = NETWORK_LAYER_SIZE[layer-1];
+
+            for (int neuron = 0, row = 0; neuron < NETWORK_LAYER_SIZE[layer]; neuron++, row += prevSize) {
 
                 double delta = -1 * lr * errors[layer][neuron];
                 bias[layer][neuron] += delta;
 
-                for (int prevNeuron = 0; prevNeuron < NETWORK_LAYER_SIZE[layer - 1]; prevNeuron++) {
-                    weights[layer][neuron][prevNeuron] += delta * outputs[layer-1][prevNeuron];
-                }
+                KERNELS.axpy(delta, prevOutputs, 0, w, row, prevSize);
 
             }
         }
@@ -198,8 +738,25 @@ public class Network {
         Node netw = new Node("Network");
         Node ly = new Node("Layers");
         netw.addAttribute(new Attribute("sizes", Arrays.toString(this.NETWORK_LAYER_SIZE)));
+        netw.addAttribute(new Attribute("activations", Arrays.toString(Arrays.copyOfRange(this.activations, 1, this.NETWORK_SIZE))));
+        netw.addAttribute(new Attribute("learningRate", "" + this.learningRate));
         netw.addChild(ly);
         root.addChild(netw);
+
+        // The optimizer and its state, so that training can be resumed from this file
+        Node opt = new Node("Optimizer");
+        opt.addAttribute("type", optimizer.getName());
+        opt.addAttribute("parameters", Arrays.toString(optimizer.getParameters()));
+        opt.addAttribute("step", "" + optimizerStep);
+        netw.addChild(opt);
+        for (int layer = 1; layer < this.NETWORK_SIZE; layer++) {
+            Node c = new Node("" + layer);
+            opt.addChild(c);
+            for (int k = 0; k < optimizer.stateBuffers(); k++) {
+                c.addAttribute("weights" + k, Arrays.toString(weightStates[layer][k]));
+                c.addAttribute("biases" + k, Arrays.toString(biasStates[layer][k]));
+            }
+        }
         for (int layer = 1; layer < this.NETWORK_SIZE; layer++) {
 
             Node c = new Node("" + layer);
@@ -211,9 +768,11 @@ public class Network {
 
             b.addAttribute("values", Arrays.toString(this.bias[layer]));
 
-            for (int we = 0; we < this.weights[layer].length; we++) {
+            int prevSize = this.NETWORK_LAYER_SIZE[layer-1];
+            for (int we = 0; we < this.NETWORK_LAYER_SIZE[layer]; we++) {
 
-                w.addAttribute("" + we, Arrays.toString(weights[layer][we]));
+                // Each row is written out on its own so the file format stays the same as before
+                w.addAttribute("" + we, Arrays.toString(Arrays.copyOfRange(weights[layer], we * prevSize, (we + 1) * prevSize)));
             }
         }
         p.close();
@@ -221,6 +780,11 @@ public class Network {
 
     public static Network loadNetwork(String fileName) throws Exception {
 
+        // Files written by NetworkFile are loaded straight from their binary blocks
+        if (NetworkFile.isNetworkFile(fileName)) {
+            return NetworkFile.read(fileName);
+        }
+
         Parser p = new Parser();
 
         p.load(fileName);
@@ -228,17 +792,51 @@ public class Network {
         int[] si = ParserTools.parseIntArray(sizes);
         Network ne = new Network(si);
 
+        // Files saved before activations could be chosen don't have them, those are all sigmoid
+        Node netw = p.getContent().getChild("Network");
+        if (netw.getAttribute("activations") != null) {
+            String[] names = ParserTools.parseStringArray(netw.getAttribute("activations").getValue());
+            for (int i = 1; i < ne.NETWORK_SIZE; i++) {
+                ne.activations[i] = Activation.valueOf(names[i-1]);
+            }
+        }
+        if (netw.getAttribute("learningRate") != null) {
+            ne.learningRate = ParserTools.parseDouble(netw.getAttribute("learningRate").getValue());
+        }
+
+        // Every layer is looked up once, its rows are attributes of its weights node
+        Node layers = netw.getChild("Layers");
         for (int i = 1; i < ne.NETWORK_SIZE; i++) {
-            String biases = p.getValue(new String[] { "Network", "Layers", i + "", "biases" }, "values");
+            Node layer = layers.getChild(i + "");
+            String biases = layer.getChild("biases").getAttribute("values").getValue();
             double[] bias = ParserTools.parseDoubleArray(biases);
             ne.bias[i] = bias;
 
+            Node weights = layer.getChild("weights");
             for(int n = 0; n < ne.NETWORK_LAYER_SIZE[i]; n++){
 
-                String current = p.getValue(new String[] { "Network", "Layers", i + "", "weights" }, ""+n);
+                String current = weights.getAttribute(""+n).getValue();
                 double[] val = ParserTools.parseDoubleArray(current);
 
-                ne.weights[i][n] = val;
+                System.arraycopy(val, 0, ne.weights[i], n * ne.NETWORK_LAYER_SIZE[i-1], ne.NETWORK_LAYER_SIZE[i-1]);
+            }
+        }
+
+        // Networks saved with an optimizer continue with the same optimizer state
+        Node opt = netw.getChild("Optimizer");
+        if (opt != null) {
+            Optimizer optimizer = Optimizer.create(opt.getAttribute("type").getValue(),
+                    ParserTools.parseDoubleArray(opt.getAttribute("parameters").getValue()));
+            if (optimizer != null) {
+                ne.setOptimizer(optimizer);
+                ne.optimizerStep = Long.parseLong(opt.getAttribute("step").getValue());
+                for (int i = 1; i < ne.NETWORK_SIZE; i++) {
+                    Node c = opt.getChild("" + i);
+                    for (int k = 0; k < optimizer.stateBuffers(); k++) {
+                        ne.weightStates[i][k] = ParserTools.parseDoubleArray(c.getAttribute("weights" + k).getValue());
+                        ne.biasStates[i][k] = ParserTools.parseDoubleArray(c.getAttribute("biases" + k).getValue());
+                    }
+                }
             }
         }
         p.close();
@@ -0,0 +1,226 @@
+package neuralnetwork;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes Networks in a binary format, which is much smaller and faster to load than the text format
+ * Of saveNetwork, which stays around for looking at and exporting networks. Everything is little-endian:
+ *
+ *   int    magic "NNMF"
+ *   int    version
+ *   int    number of layers
+ *   int[]  the size of every layer
+ *   for every layer but the first, its activation as an int length and that many UTF-8 bytes
+ *   double learning rate
+ *   zeros up to the next multiple of 8 bytes
+ *
+ * Followed by every layer but the first, its weights row-major like they are kept in memory and then its biases,
+ * And finally a long holding the CRC32 of everything before it. The optimizer and its state aren't saved,
+ * A loaded network starts with plain SGD.
+ */
+public class NetworkFile {
+
+    static final int MAGIC = 0x4E4E4D46;
+    static final int VERSION = 1;
+
+    // How many bytes are written at once
+    private static final int WRITE_BYTES = 1 << 16;
+
+    public static void write(Network network, String fileName) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(headerBytes(network)).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(network.NETWORK_SIZE);
+            for (int size : network.NETWORK_LAYER_SIZE) {
+                header.putInt(size);
+            }
+            for (int layer = 1; layer < network.NETWORK_SIZE; layer++) {
+                byte[] name = network.getActivation(layer).name().getBytes(StandardCharsets.UTF_8);
+                header.putInt(name.length).put(name);
+            }
+            header.putDouble(network.getLearningRate());
+            header.position(header.capacity());
+            header.flip();
+            write(channel, header, crc);
+
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int layer = 1; layer < network.NETWORK_SIZE; layer++) {
+                write(channel, buffer, network.getWeights(layer), crc);
+                write(channel, buffer, network.getBias(layer), crc);
+            }
+
+            ByteBuffer checksum = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            checksum.putLong(crc.getValue());
+            checksum.flip();
+            write(channel, checksum, null);
+        }
+    }
+
+    /**
+     * Maps the file and copies the weights and biases straight out of the map into the new network, after checking
+     * That the checksum matches.
+     */
+    public static Network read(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < 12 + 8) {
+                throw new IOException(fileName + " is too short to be a network file");
+            }
+            ByteBuffer start = read(channel, 0, 12);
+            if (start.getInt(0) != MAGIC) {
+                throw new IOException(fileName + " is not a network file");
+            }
+            int version = start.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unknown network file version " + version + " in " + fileName);
+            }
+            int layers = start.getInt(8);
+            if (layers < 2 || 12 + 4L * layers > fileSize) {
+                throw new IOException(fileName + " has a broken header");
+            }
+
+            ByteBuffer sizes = read(channel, 12, 4 * layers);
+            int[] layerSizes = new int[layers];
+            for (int i = 0; i < layers; i++) {
+                layerSizes[i] = sizes.getInt(4 * i);
+                if (layerSizes[i] <= 0) {
+                    throw new IOException(fileName + " has a broken header");
+                }
+            }
+            // The sizes have to fit the file before a network of that size is made
+            long expected = 12 + 4L * layers + 8 + 8;
+            for (int layer = 1; layer < layers; layer++) {
+                long weights = (long) layerSizes[layer] * layerSizes[layer - 1];
+                if (weights > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Layer " + layer + " of " + fileName + " is too big for a network");
+                }
+                expected += 8 * (weights + layerSizes[layer]);
+                if (expected > fileSize) {
+                    throw new IOException(fileName + " is cut short");
+                }
+            }
+            Network network = new Network(layerSizes);
+
+            int headerBytes = headerBytes(network, channel);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerBytes);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.position(12 + 4 * layers);
+            // Only read for now, they are looked up once the checksum shows the header is what was written
+            String[] names = new String[layers];
+            for (int layer = 1; layer < layers; layer++) {
+                byte[] name = new byte[header.getInt()];
+                header.get(name);
+                names[layer] = new String(name, StandardCharsets.UTF_8);
+            }
+            double learningRate = header.getDouble();
+
+            CRC32 crc = new CRC32();
+            header.rewind();
+            crc.update(header);
+
+            long position = headerBytes;
+            for (int layer = 1; layer < layers; layer++) {
+                double[] weights = network.getWeights(layer);
+                double[] bias = network.getBias(layer);
+                long bytes = 8L * (weights.length + bias.length);
+                if (bytes > Integer.MAX_VALUE) {
+                    throw new IOException("Layer " + layer + " of " + fileName + " is too big to map");
+                }
+                if (position + bytes + 8 > fileSize) {
+                    throw new IOException(fileName + " is cut short");
+                }
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+                block.order(ByteOrder.LITTLE_ENDIAN);
+                crc.update(block);
+                block.rewind();
+                block.asDoubleBuffer().get(weights).get(bias);
+                position += bytes;
+            }
+
+            long checksum = read(channel, position, 8).getLong(0);
+            if (checksum != crc.getValue()) {
+                throw new IOException("The checksum of " + fileName + " doesn't match, the file is damaged");
+            }
+            for (int layer = 1; layer < layers; layer++) {
+                try {
+                    network.setActivation(layer, Activation.valueOf(names[layer]));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Unknown activation " + names[layer] + " in " + fileName, e);
+                }
+            }
+            network.setLearningRate(learningRate);
+            return network;
+        }
+    }
+
+    // Whether the file starts like a binary network file
+    public static boolean isNetworkFile(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return channel.size() >= 4 && read(channel, 0, 4).getInt(0) == MAGIC;
+        }
+    }
+
+    private static int headerBytes(Network network) {
+        int bytes = 12 + 4 * network.NETWORK_SIZE;
+        for (int layer = 1; layer < network.NETWORK_SIZE; layer++) {
+            bytes += 4 + network.getActivation(layer).name().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return align(bytes + 8);
+    }
+
+    // The size of the header of the file, which holds the activation names whose lengths aren't known in advance
+    private static int headerBytes(Network network, FileChannel channel) throws IOException {
+        long position = 12 + 4L * network.NETWORK_SIZE;
+        for (int layer = 1; layer < network.NETWORK_SIZE; layer++) {
+            int length = read(channel, position, 4).getInt(0);
+            if (length < 0 || length > 64) {
+                throw new IOException("The file has a broken header");
+            }
+            position += 4 + length;
+        }
+        return align((int) position + 8);
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("The file is cut short");
+            }
+        }
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, double[] values, CRC32 crc) throws IOException {
+        int perBuffer = buffer.capacity() / 8;
+        for (int from = 0; from < values.length; from += perBuffer) {
+            int count = Math.min(perBuffer, values.length - from);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, from, count);
+            buffer.limit(count * 8);
+            write(channel, buffer, crc);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        if (crc != null) {
+            crc.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,8 +1,22 @@
 package neuralnetwork;
 
 
+import java.util.Random;
+
 public class NetworkTools {
 
+    private static Random random = new Random();
+
+    // Fixing the seed makes the starting weights and the batches picked during training repeatable
+    public static void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    // Used to seed other random number generators, so they are repeatable too
+    public static long nextSeed() {
+        return random.nextLong();
+    }
+
     public static double[] normalize(double[] array) {
         double[] arr = new double[array.length];
         double max = array[0];
@@ -27,8 +41,7 @@ public class NetworkTools {
                 colMax = anArray[j] > colMax ? anArray[j] : colMax;
             }
             for (int i = 0; i < array.length; i++) {
-                String temp = String.format("%1.2f", array[i][j] / colMax);
-                arr[i][j] = Double.parseDouble(temp);
+                arr[i][j] = array[i][j] / colMax;
             }
         }
         return arr;
@@ -61,7 +74,7 @@ public class NetworkTools {
     }
 
     private static double randomNumber(double lower, double upper) {
-        return Math.random()*(upper - lower) + lower;
+        return random.nextDouble()*(upper - lower) + lower;
     }
 
     public static Integer[] randomValues(int size, int lower, int upper) {
@@ -0,0 +1,41 @@
+package neuralnetwork;
+
+/**
+ * Decides how a gradient is turned into a change of the weights.
+ * An optimizer keeps no state of its own, anything it needs to remember between steps lives in
+ * Buffers the network keeps next to every weight and bias buffer, so the same optimizer can be
+ * Saved along with the network and training can pick up where it stopped.
+ */
+public abstract class Optimizer {
+
+    // How many buffers of the same size as the parameters this optimizer needs
+    abstract int stateBuffers();
+
+    /**
+     * Updates params using gradients[i] * scale as the gradient of params[i].
+     * state[k] is the k-th state buffer of these params and step counts the updates starting at 1.
+     */
+    abstract void update(double[] params, double[] gradients, double scale, double[][] state, double lr, long step);
+
+    // The hyper parameters, written into saved networks
+    abstract double[] getParameters();
+
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    public static Optimizer create(String name, double[] parameters) {
+        switch (name) {
+            case "SGD":
+                return new SGD();
+            case "Momentum":
+                return new Momentum(parameters[0], parameters[1] != 0);
+            case "RMSProp":
+                return new RMSProp(parameters[0], parameters[1]);
+            case "Adam":
+                return new Adam(parameters[0], parameters[1], parameters[2]);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package neuralnetwork;
+
+import trainset.TrainSet;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits every batch into one contiguous chunk per worker, lets the workers compute the gradients
+ * Of their chunk against the shared weights and then sums the gradients up in worker order.
+ * Since both the chunks and the order of the sum only depend on the number of threads, the same
+ * Thread count and seed always give the same weights.
+ */
+class ParallelTrainer {
+
+    // Below this many rows per worker the cost of handing out the work is bigger than the work itself
+    private static final int MIN_ROWS_PER_WORKER = 16;
+
+    private final Network network;
+    private final int threads;
+    private final ForkJoinPool pool;
+    private BatchWorkspace[] workspaces;
+
+    ParallelTrainer(Network network, int threads) {
+        this.network = network;
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+        this.workspaces = new BatchWorkspace[threads];
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    // Returns the summed up loss of the batch
+    double trainBatch(TrainSet batch, double learningRate) {
+        int rows = batch.size();
+        int workers = Math.max(1, Math.min(threads, rows / MIN_ROWS_PER_WORKER));
+        int chunk = (rows + workers - 1) / workers;
+
+        double[] losses = new double[workers];
+        ArrayList<RecursiveAction> tasks = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            int from = w * chunk;
+            int to = Math.min(from + chunk, rows);
+            if (workspaces[w] == null || workspaces[w].capacity < chunk) {
+                workspaces[w] = new BatchWorkspace(network.NETWORK_LAYER_SIZE, chunk);
+            }
+            BatchWorkspace ws = workspaces[w];
+            int worker = w;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ws.clearGradients();
+                    if (from < to) {
+                        losses[worker] = network.accumulateGradients(batch, from, to, ws);
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        // Reduce into the first workspace, always in the same order so the result is reproducible
+        BatchWorkspace total = workspaces[0];
+        double loss = losses[0];
+        for (int w = 1; w < workers; w++) {
+            loss += losses[w];
+            for (int layer = 1; layer < network.NETWORK_SIZE; layer++) {
+                add(total.weightGradients[layer], workspaces[w].weightGradients[layer]);
+                add(total.biasGradients[layer], workspaces[w].biasGradients[layer]);
+            }
+        }
+        network.applyGradients(total, learningRate, rows);
+        return loss;
+    }
+
+    private static void add(double[] into, double[] values) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] += values[i];
+        }
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+}
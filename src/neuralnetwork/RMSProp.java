@@ -0,0 +1,37 @@
+package neuralnetwork;
+
+// Divides every step by a running average of the size of the recent gradients of that weight
+public class RMSProp extends Optimizer {
+
+    private final double decay;
+    private final double epsilon;
+
+    public RMSProp() {
+        this(0.9, 1e-8);
+    }
+
+    public RMSProp(double decay, double epsilon) {
+        this.decay = decay;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    int stateBuffers() {
+        return 1;
+    }
+
+    @Override
+    void update(double[] params, double[] gradients, double scale, double[][] state, double lr, long step) {
+        double[] s = state[0];
+        for (int i = 0; i < params.length; i++) {
+            double g = gradients[i] * scale;
+            s[i] = decay * s[i] + (1 - decay) * g * g;
+            params[i] -= lr * g / (Math.sqrt(s[i]) + epsilon);
+        }
+    }
+
+    @Override
+    double[] getParameters() {
+        return new double[]{decay, epsilon};
+    }
+}
@@ -0,0 +1,20 @@
+package neuralnetwork;
+
+// Plain gradient descent, the way the network always trained
+public class SGD extends Optimizer {
+
+    @Override
+    int stateBuffers() {
+        return 0;
+    }
+
+    @Override
+    void update(double[] params, double[] gradients, double scale, double[][] state, double lr, long step) {
+        Kernels.INSTANCE.axpy(-1 * lr * scale, gradients, 0, params, 0, params.length);
+    }
+
+    @Override
+    double[] getParameters() {
+        return new double[0];
+    }
+}
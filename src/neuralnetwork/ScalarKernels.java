@@ -0,0 +1,36 @@
+package neuralnetwork;
+
+class ScalarKernels extends Kernels {
+
+    @Override
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int len) {
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int len) {
+        float sum = 0;
+        for (int i = 0; i < len; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+}
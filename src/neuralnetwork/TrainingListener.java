@@ -0,0 +1,11 @@
+package neuralnetwork;
+
+/**
+ * Gets told the loss after every training loop. The loss is the mean squared error of the batch,
+ * Taken from the forward pass the training does anyway, so it is measured before that loop's update.
+ * When no listener is registered the loss is never added up.
+ */
+public interface TrainingListener {
+
+    void loopFinished(int loop, double loss);
+}
@@ -0,0 +1,12 @@
+package neuralnetwork;
+
+public enum TrainingMode {
+    // Every row of a batch updates the weights on its own, plain stochastic gradient descent
+    SGD,
+    // The whole batch goes forward and back as one matrix, the gradients are averaged and applied once
+    MINI_BATCH,
+    // Like MINI_BATCH, but every batch is split up between worker threads that compute their gradients in parallel
+    PARALLEL_BATCH,
+    // Every thread runs plain SGD on batches from its own shard of the set and writes into the shared weights without locking
+    HOGWILD
+}
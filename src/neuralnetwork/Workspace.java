@@ -0,0 +1,26 @@
+package neuralnetwork;
+
+/**
+ * The per sample scratch state of a network: the output, derivative and error of every neuron.
+ * The weights are shared, so any number of threads can work on the same network as long as
+ * Every thread has a workspace of its own. Get one from Network.createWorkspace.
+ */
+public class Workspace {
+
+    final double[][] outputs;
+    final double[][] outputs_derivative;
+    final double[][] errors;
+
+    Workspace(int[] layerSizes) {
+        int networkSize = layerSizes.length;
+        this.outputs = new double[networkSize][];
+        this.outputs_derivative = new double[networkSize][];
+        this.errors = new double[networkSize][];
+
+        for (int i = 0; i < networkSize; i++) {
+            this.outputs[i] = new double[layerSizes[i]];
+            this.outputs_derivative[i] = new double[layerSizes[i]];
+            this.errors[i] = new double[layerSizes[i]];
+        }
+    }
+}
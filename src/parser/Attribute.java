@@ -1,8 +1,12 @@
 package parser;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Attribute {
 	
 	private String name, value;
+	// How many attributes were renamed so far. Nodes find attributes by name, this tells them to look again
+	private static final AtomicInteger RENAMES = new AtomicInteger();
 	
 	public Attribute(String name, String value){
 		this.name = name;
@@ -15,6 +19,11 @@ public class Attribute {
 
 	public void setName(String name) {
 		this.name = name;
+		RENAMES.incrementAndGet();
+	}
+
+	static int renames() {
+		return RENAMES.get();
 	}
 
 	public String getValue() {
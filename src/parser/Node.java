@@ -1,13 +1,20 @@
 package parser;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 
 public class Node {
 	
 	private String name;
-	private ArrayList<Node> childs = new ArrayList<>();
+	private ChildList childs = new ChildList();
 	private ArrayList<Attribute> attributes = new ArrayList<>();
+	// The same childs and attributes by name, the lists keep the order they are written in.
+	// The indexes are built again when the childs changed through getChilds or an attribute got renamed since
+	private HashMap<String, Node> childIndex = new HashMap<>();
+	private HashMap<String, Attribute> attributeIndex = new HashMap<>();
+	private int indexedChanges = 0;
+	private int indexedRenames = Attribute.renames();
 	
 	public Node(String name) {
 		this.name = name;
@@ -19,6 +26,7 @@ public class Node {
 				return false;
 			}
 			attributes.add(att);
+			attributeIndex().put(att.getName(), att);
 			return true;
 		}
 		return false;
@@ -39,27 +47,20 @@ public class Node {
 				return false;
 			}
 			childs.add(n);
+			childIndex().put(n.getName(), n);
+			// The node made this change itself and the index already has it
+			indexedChanges = childs.changes();
 			return true;
 		}
 		return false;
 	}
 	
 	public Node getChild(String child) {
-		for(Node r:childs){
-			if(r.getName().equals(child)){
-				return r;
-			}
-		}
-		return null;
+		return childIndex().get(child);
 	}
 	
 	public Attribute getAttribute(String key) {
-		for(Attribute r:attributes){
-			if(r.getName().equals(key)){
-				return r;
-			}
-		}
-		return null;
+		return attributeIndex().get(key);
 	}
 	
 	public void setAttribute(String att, String value){
@@ -76,97 +77,120 @@ public class Node {
 		return this.removeChild(new Node(child));
 	}
 	
+	// Only removes an attribute with the same name and value
 	public boolean removeAttribute(Attribute att){
-		int index = 0;
-		for(Attribute r:attributes){
-			if(r.equals(att)){
-				childs.remove(index);
-				return true;
-			}index++;
+		// Renamed attributes can share a name, so the list is searched for an equal one once the name is known
+		if(attributeIndex().containsKey(att.getName()) && attributes.remove(att)){
+			indexedRenames = -1;
+			return true;
 		}
 		return false;
 	}
 	
 	public boolean removeChild(Node child) {
-		int index = 0;
-		for(Node r:childs){
-			if(child.equals(r)){
-				childs.remove(index);
-				return true;
-			}index++;
+		Node r = childIndex().get(child.getName());
+		if(r != null){
+			// Leaves the index to be built again, there can be more childs of that name added through getChilds
+			childs.remove(r);
+			return true;
 		}
 		return false;
 	}
 	
 	public boolean containsAttribute(Attribute s){
-		for(Attribute r:attributes){
-			if(r.equalAttribute(s)){
-				return true;
-			}
-		}
-		return false;
+		return attributeIndex().containsKey(s.getName());
 	}
 
 	public boolean containsChild(Node s){
-		for(Node r:childs){
-			if(s.equals(r)){
-				return true;
-			}
-		}
-		return false;
+		return childIndex().containsKey(s.getName());
 	}
 	
+	// Parses a node written like toParse writes it, "<name>" up to its "</name>"
 	public static Node parse(String c) throws Exception{
-		String[] lines = c.split("[;>]");
-		Node n = new Node(lines[0].substring(1, lines[0].length()));
-	
-		int i = 1;
-		while(i < lines.length-1){
-			String currentLine = lines[i].trim();
-			
-			String nodeName = "";
-			if(currentLine.startsWith("<")){
-				nodeName = currentLine.substring(1);
-				String batch = "";
-				while(!lines[i].trim().startsWith("</"+nodeName)){
-					batch += lines[i].trim() + ";";
-					i++;
-				}
-				batch += lines[i].trim() + ";";
-				n.addChild(Node.parse(batch));
-			}
-			else{
-				n.addAttribute(Attribute.parse(currentLine));
-				
-			}i++;
+		int start = 0;
+		while(start < c.length() && c.charAt(start) != ';' && c.charAt(start) != '>'){
+			start++;
 		}
-		
-		return n;
+		NodeReader reader = new NodeReader(new Node(c.substring(1, start)));
+		reader.read(c, start + 1, c.length());
+		return reader.finish();
 	}
 
 	public String toParse(int spacesLeft) {
-		String res = ParserTools.createSpaces(spacesLeft) + "<" + name + ">" + "\n";
+		StringBuilder res = new StringBuilder();
+		this.toParse(res, spacesLeft);
+		return res.toString();
+	}
+	
+	// Writes into a single builder, so writing a big tree takes as long as it is long
+	void toParse(StringBuilder res, int spacesLeft) {
+		ParserTools.appendSpaces(res, spacesLeft);
+		res.append('<').append(name).append(">\n");
 		
 		for(Attribute at:attributes){
-			res += at.toParse(spacesLeft + 4) + "\n";
+			ParserTools.appendSpaces(res, spacesLeft + 4);
+			res.append(at.getName()).append(" : ").append(at.getValue()).append(";\n");
 		}
 		
 		for(Node n:childs){
-			res += n.toParse(spacesLeft + 4);
+			n.toParse(res, spacesLeft + 4);
 		}
 		
-		res += ParserTools.createSpaces(spacesLeft) + "</" + name + ">"+ "\n";
-		return res;
+		ParserTools.appendSpaces(res, spacesLeft);
+		res.append("</").append(name).append(">\n");
 	}
 	
 	public String getName() {
 		return this.name;
 	}
 	
+	// The childs themselves, the node picks up whatever is changed through the list the next time it looks a child up
 	public ArrayList<Node> getChilds(){
 		return this.childs;
 	}
 	
+	private HashMap<String, Node> childIndex() {
+		if(indexedChanges != childs.changes()){
+			childIndex.clear();
+			// Like a search through the list, the first child of a name is the one that is found
+			for(Node n:childs){
+				childIndex.putIfAbsent(n.getName(), n);
+			}
+			indexedChanges = childs.changes();
+		}
+		return childIndex;
+	}
+	
+	private HashMap<String, Attribute> attributeIndex() {
+		if(indexedRenames != Attribute.renames()){
+			attributeIndex.clear();
+			for(Attribute a:attributes){
+				attributeIndex.putIfAbsent(a.getName(), a);
+			}
+			indexedRenames = Attribute.renames();
+		}
+		return attributeIndex;
+	}
+	
+	/**
+	 * An ArrayList that counts how often it was changed. modCount only counts the changes to its size,
+	 * So replacing a child with set is counted on top of that.
+	 */
+	private static class ChildList extends ArrayList<Node> {
+		
+		private int replaced = 0;
+		
+		@Override
+		public Node set(int index, Node n) {
+			replaced++;
+			return super.set(index, n);
+		}
+		
+		int changes() {
+			return modCount + replaced;
+		}
+	}
+	
 	public boolean equals(Object o) {
 		return o.getClass() == this.getClass() && ((Node) o).getName().equals(this.getName());
 	}
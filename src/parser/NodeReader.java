@@ -0,0 +1,76 @@
+package parser;
+
+import java.util.ArrayList;
+
+/**
+ * Builds a tree of nodes from text in the format toParse writes, in a single pass over it. The text can be given
+ * In as many pieces as wanted, a piece doesn't have to end where a node or an attribute does.
+ * Everything up to a ';' or a '>' is a token: "<name" opens a child of the node that is open, "</name" closes it
+ * And anything else is an attribute of it. A child is added to its parent once it is closed.
+ */
+class NodeReader {
+
+	// The root and every node that is opened but not closed yet, the innermost last
+	private ArrayList<Node> open = new ArrayList<>();
+	private StringBuilder token = new StringBuilder();
+
+	NodeReader(Node root) {
+		open.add(root);
+	}
+
+	void read(CharSequence text) {
+		this.read(text, 0, text.length());
+	}
+
+	void read(CharSequence text, int from, int to) {
+		for(int i = from; i < to; i++){
+			char c = text.charAt(i);
+			if(c == ';' || c == '>'){
+				this.endToken();
+			}
+			else{
+				token.append(c);
+			}
+		}
+	}
+
+	// The root, once every node in it is closed. Whatever comes after the last ';' or '>' is left out
+	Node finish() throws Exception {
+		if(open.size() > 1){
+			throw new Exception("<" + open.get(open.size() - 1).getName() + "> is never closed");
+		}
+		return open.get(0);
+	}
+
+	private void endToken() {
+		int from = 0;
+		int to = token.length();
+		while(from < to && token.charAt(from) <= ' '){
+			from++;
+		}
+		while(to > from && token.charAt(to - 1) <= ' '){
+			to--;
+		}
+		if(from == to){
+			token.setLength(0);
+			return;
+		}
+		String current = token.substring(from, to);
+		token.setLength(0);
+
+		Node node = open.get(open.size() - 1);
+		if(current.startsWith("</")){
+			// Closing anything but the open node, or the root, is ignored
+			if(open.size() > 1 && current.startsWith("</" + node.getName())){
+				open.remove(open.size() - 1);
+				open.get(open.size() - 1).addChild(node);
+			}
+		}
+		else if(current.startsWith("<")){
+			open.add(new Node(current.substring(1)));
+		}
+		else{
+			node.addAttribute(Attribute.parse(current));
+		}
+	}
+}
@@ -11,17 +11,18 @@ public class Parser {
 	private Node mainContent;
 	private String fileName;
 	
+	// Reads the file line by line straight into the nodes, the lines are joined without the line breaks
 	public void load(String file) throws Exception {
 		this.fileName = file;
-		String data = "<MainContent>";
-		BufferedReader reader = new BufferedReader(new FileReader (file));
-		String line;
-		while((line = reader.readLine())!= null){
-			if(!line.trim().equals(""))
-				data += line;
+		NodeReader nodes = new NodeReader(new Node("MainContent"));
+		try(BufferedReader reader = new BufferedReader(new FileReader (file))){
+			String line;
+			while((line = reader.readLine())!= null){
+				if(!line.trim().equals(""))
+					nodes.read(line);
+			}
 		}
-		data += "</MainContent>";
-		this.generateNodes(data);
+		mainContent = nodes.finish();
 	}
 	
 	public void create(String fileName) {
@@ -29,10 +30,6 @@ public class Parser {
 		this.mainContent = new Node("MainContent");
 	}
 	
-	private void generateNodes(String data) throws Exception{
-		mainContent = Node.parse(data);
-	}
-	
 	public Node getContent() {
 		return mainContent;
 	}
@@ -88,8 +85,11 @@ public class Parser {
 	
 	public void close() throws Exception{
 		PrintWriter out = new PrintWriter(fileName);
+		StringBuilder res = new StringBuilder();
 		for(Node n:mainContent.getChilds()){
-			out.print(n.toParse(0));
+			n.toParse(res, 0);
+			out.append(res);
+			res.setLength(0);
 		}
 		out.close();
 	}
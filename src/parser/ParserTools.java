@@ -26,6 +26,10 @@ public class ParserTools {
 
 	public static double[] parseDoubleArray(String code) {
 		code = code.substring(1, code.length()-1);
+		// "[]" is an empty array, not an array holding an empty number
+		if(code.trim().isEmpty()){
+			return new double[0];
+		}
 		String[] data = code.split(",");
 		double[] d = new double[data.length];
 		for(int i = 0; i <d.length; i++){
@@ -36,6 +40,10 @@ public class ParserTools {
 	
 	public static float[] parseFloatArray(String code) {
 		code = code.substring(1, code.length()-1);
+		// "[]" is an empty array, not an array holding an empty number
+		if(code.trim().isEmpty()){
+			return new float[0];
+		}
 		String[] data = code.split(",");
 		float[] d = new float[data.length];
 		for(int i = 0; i <d.length; i++){
@@ -44,12 +52,25 @@ public class ParserTools {
 		return d;
 	}
 	
+	public static String[] parseStringArray(String code) {
+		code = code.substring(1, code.length()-1);
+		String[] data = code.split(",");
+		for(int i = 0; i <data.length; i++){
+			data[i] = data[i].trim();
+		}
+		return data;
+	}
+	
 	public static String createSpaces(int amount){
-		String res = "";
-		for(int i = 0; i<  amount; i++){
-			res += " ";
+		StringBuilder res = new StringBuilder(amount);
+		appendSpaces(res, amount);
+		return res.toString();
+	}
+	
+	static void appendSpaces(StringBuilder res, int amount){
+		for(int i = 0; i < amount; i++){
+			res.append(' ');
 		}
-		return res;
 	}
 
 	
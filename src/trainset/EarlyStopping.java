@@ -0,0 +1,66 @@
+package trainset;
+
+import neuralnetwork.Network;
+
+/**
+ * Watches the loss on a validation set after every epoch and tells the training to stop once it hasn't
+ * Improved by at least minDelta for patience epochs in a row. The weights of the best epoch are kept
+ * So they can be put back into the network at the end.
+ */
+public class EarlyStopping {
+
+    private final TrainSet validation;
+    private final int patience;
+    private final double minDelta;
+
+    private double bestLoss;
+    private int bestEpoch;
+    private int epochsWithoutImprovement;
+    private Network best;
+
+    public EarlyStopping(TrainSet validation, int patience, double minDelta) {
+        this.validation = validation;
+        this.patience = patience;
+        this.minDelta = minDelta;
+        reset();
+    }
+
+    public void reset() {
+        bestLoss = Double.MAX_VALUE;
+        bestEpoch = -1;
+        epochsWithoutImprovement = 0;
+        best = null;
+    }
+
+    // Returns true if the training should stop
+    public boolean update(Network network, int epoch) {
+        double loss = network.MSE(validation);
+        if (loss < bestLoss - minDelta) {
+            bestLoss = loss;
+            bestEpoch = epoch;
+            epochsWithoutImprovement = 0;
+            if (best == null) {
+                best = network.copy();
+            } else {
+                best.setParameters(network);
+            }
+            return false;
+        }
+        epochsWithoutImprovement++;
+        return epochsWithoutImprovement >= patience;
+    }
+
+    public void restoreBest(Network network) {
+        if (best != null) {
+            network.setParameters(best);
+        }
+    }
+
+    public double getBestLoss() {
+        return bestLoss;
+    }
+
+    public int getBestEpoch() {
+        return bestEpoch;
+    }
+}
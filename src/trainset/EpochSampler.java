@@ -0,0 +1,70 @@
+package trainset;
+
+import java.util.SplittableRandom;
+
+/**
+ * Hands out batches of a TrainSet without picking a row twice in the same epoch.
+ * The rows are visited in the order of a shuffled permutation of their indices, once the permutation
+ * Runs out it is shuffled again. A batch is a view on the permutation and the parent set, so no rows are
+ * Copied, unless the set keeps its rows off the heap. A batch stays valid until the sampler starts its next epoch.
+ * A sampler is not thread safe, split() gives an independent sampler for another thread.
+ */
+public class EpochSampler {
+
+    private final TrainSet set;
+    private final SplittableRandom random;
+    private int[] permutation;
+    private int cursor;
+
+    public EpochSampler(TrainSet set, long seed) {
+        this(set, new SplittableRandom(seed));
+    }
+
+    private EpochSampler(TrainSet set, SplittableRandom random) {
+        this.set = set;
+        this.random = random;
+        this.permutation = new int[0];
+        this.cursor = 0;
+    }
+
+    public EpochSampler split() {
+        return split(set);
+    }
+
+    // An independent sampler of another set, seeded from this one
+    EpochSampler split(TrainSet other) {
+        return new EpochSampler(other, random.split());
+    }
+
+    public TrainSet nextBatch(int size) {
+        if (size <= 0 || size > set.size()) {
+            return set;
+        }
+        // Rows were added since the last epoch, so start over with all of them
+        if (permutation.length != set.size()) {
+            permutation = new int[set.size()];
+            for (int i = 0; i < permutation.length; i++) {
+                permutation[i] = i;
+            }
+            cursor = permutation.length;
+        }
+        // Not enough rows left in this epoch for a whole batch
+        if (cursor + size > permutation.length) {
+            shuffle();
+            cursor = 0;
+        }
+        TrainSet batch = set.batchOf(new TrainSet(set, permutation, cursor, cursor + size));
+        cursor += size;
+        return batch;
+    }
+
+    // Fisher-Yates
+    private void shuffle() {
+        for (int i = permutation.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = temp;
+        }
+    }
+}
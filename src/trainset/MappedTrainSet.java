@@ -0,0 +1,223 @@
+package trainset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A TrainSet that stays in a file written by TrainSetFile and is read through a memory map,
+ * So the rows are held by the page cache instead of the heap. It can't be added to.
+ * Batches and slices are copied into small ordinary TrainSets, which is what the training then runs on.
+ * The arrays of the whole set are never on the heap, so getInputData, getOutputData and getLabelData throw.
+ * A single map can't be bigger than 2 GB, so the file is mapped in several parts that each hold whole rows.
+ */
+public class MappedTrainSet extends TrainSet {
+
+    private final boolean labels;
+    private final int rows;
+    private final int rowBytes;
+    private final int rowsPerPart;
+    private final MappedByteBuffer[] parts;
+
+    MappedTrainSet(String fileName) throws IOException {
+        this(fileName, readHeader(fileName));
+    }
+
+    private MappedTrainSet(String fileName, ByteBuffer header) throws IOException {
+        super(header.getInt(8), header.getInt(12), 1, header.getInt(16) == 1);
+        this.labels = header.getInt(16) == 1;
+        this.rows = (int) header.getLong(20);
+        this.rowBytes = TrainSetFile.rowBytes(INPUT_SIZE, OUTPUT_SIZE, labels);
+        this.rowsPerPart = Math.max(1, Integer.MAX_VALUE / rowBytes);
+
+        int partCount = (rows + rowsPerPart - 1) / rowsPerPart;
+        this.parts = new MappedByteBuffer[partCount];
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            for (int p = 0; p < partCount; p++) {
+                long start = TrainSetFile.HEADER_BYTES + (long) p * rowsPerPart * rowBytes;
+                long length = (long) Math.min(rowsPerPart, rows - p * rowsPerPart) * rowBytes;
+                parts[p] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                parts[p].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    // Reads the header and checks it against the size of the file, before anything is allocated or mapped
+    private static ByteBuffer readHeader(String fileName) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TrainSetFile.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long fileSize;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException(fileName + " is too short to be a TrainSet file");
+                }
+            }
+            fileSize = channel.size();
+        }
+        if (header.getInt(0) != TrainSetFile.MAGIC || header.getInt(4) != TrainSetFile.VERSION) {
+            throw new IOException(fileName + " is not a TrainSet file");
+        }
+        int inputSize = header.getInt(8);
+        int outputSize = header.getInt(12);
+        int labels = header.getInt(16);
+        long rowCount = header.getLong(20);
+        if (inputSize <= 0 || outputSize <= 0 || (labels != 0 && labels != 1) || rowCount < 0) {
+            throw new IOException(fileName + " has a broken header");
+        }
+        if (rowCount > Integer.MAX_VALUE) {
+            throw new IOException("Too many rows in " + fileName + ": " + rowCount);
+        }
+        // Worked out in longs, so sizes that would overflow an int can't pass for the size of the file
+        long rowBytes = inputSize * 8L + (labels == 1 ? 4 : outputSize * 8L);
+        if (rowBytes > Integer.MAX_VALUE) {
+            throw new IOException("The rows of " + fileName + " are too big: " + rowBytes + " bytes");
+        }
+        if (TrainSetFile.HEADER_BYTES + rowCount * rowBytes != fileSize) {
+            throw new IOException(fileName + " should be " + (TrainSetFile.HEADER_BYTES + rowCount * rowBytes)
+                    + " bytes long for its header, but is " + fileSize);
+        }
+        return header;
+    }
+
+    // Reads row into in and, for dense sets, out. Returns the label for sets with labels
+    private int readRow(int row, double[] in, double[] out) {
+        ByteBuffer part = parts[row / rowsPerPart];
+        int pos = (row % rowsPerPart) * rowBytes;
+        for (int k = 0; k < INPUT_SIZE; k++) {
+            in[k] = part.getDouble(pos + k * 8);
+        }
+        pos += INPUT_SIZE * 8;
+        if (labels) {
+            return part.getInt(pos);
+        }
+        for (int k = 0; k < OUTPUT_SIZE; k++) {
+            out[k] = part.getDouble(pos + k * 8);
+        }
+        return -1;
+    }
+
+    // Copies the rows of a view on this set into an ordinary TrainSet
+    private TrainSet copyRows(TrainSet view) {
+        TrainSet copy = new TrainSet(INPUT_SIZE, OUTPUT_SIZE, view.size(), labels);
+        double[] in = new double[INPUT_SIZE];
+        double[] out = new double[OUTPUT_SIZE];
+        for (int i = 0; i < view.size(); i++) {
+            int label = readRow(view.rowIndex(i), in, out);
+            if (labels) {
+                copy.addData(in, label);
+            } else {
+                copy.addData(in, out);
+            }
+        }
+        return copy;
+    }
+
+    // Unlike ordinary sets there is no whole set to fall back on, so size has to be in 1..size()
+    @Override
+    public TrainSet extractBatch(int size) {
+        if (size <= 0 || size > rows) {
+            throw new IllegalArgumentException("A batch of a MappedTrainSet needs 1 to " + rows + " rows, not " + size);
+        }
+        return super.extractBatch(size);
+    }
+
+    // Batches of the set and of views on it are copied, whichever sampler hands them out
+    @Override
+    TrainSet batchOf(TrainSet view) {
+        return copyRows(view);
+    }
+
+    @Override
+    public TrainSet slice(int from, int to) {
+        return copyRows(super.slice(from, to));
+    }
+
+    @Override
+    public void addData(double[] in, double[] expected) {
+    }
+
+    @Override
+    public void addData(double[] in, int label) {
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public double[] getInput(int index) {
+        if (index < 0 || index >= rows) {
+            return null;
+        }
+        double[] in = new double[INPUT_SIZE];
+        readRow(index, in, new double[OUTPUT_SIZE]);
+        return in;
+    }
+
+    @Override
+    public double[] getOutput(int index) {
+        if (index < 0 || index >= rows) {
+            return null;
+        }
+        double[] out = new double[OUTPUT_SIZE];
+        int label = readRow(index, new double[INPUT_SIZE], out);
+        if (labels) {
+            out[label] = 1d;
+        }
+        return out;
+    }
+
+    @Override
+    public int getLabel(int index) {
+        if (index < 0 || index >= rows) {
+            return -1;
+        }
+        double[] out = new double[OUTPUT_SIZE];
+        int label = readRow(index, new double[INPUT_SIZE], out);
+        if (labels) {
+            return label;
+        }
+        int highest = 0;
+        for (int i = 1; i < OUTPUT_SIZE; i++) {
+            if (out[i] > out[highest]) {
+                highest = i;
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public boolean hasLabels() {
+        return labels;
+    }
+
+    @Override
+    public int rowIndex(int index) {
+        return index;
+    }
+
+    @Override
+    public double[] getInputData() {
+        throw notOnHeap();
+    }
+
+    @Override
+    public double[] getOutputData() {
+        throw notOnHeap();
+    }
+
+    @Override
+    public int[] getLabelData() {
+        throw notOnHeap();
+    }
+
+    private static UnsupportedOperationException notOnHeap() {
+        return new UnsupportedOperationException("The rows of a MappedTrainSet are not on the heap, "
+                + "use slice or extractBatch to copy some of them there");
+    }
+}
@@ -1,40 +1,150 @@
 package trainset;
 
+import neuralnetwork.LearningRateSchedule;
 import neuralnetwork.Network;
 import neuralnetwork.NetworkTools;
+import neuralnetwork.TrainingMode;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 public class TrainSet {
     public final int INPUT_SIZE;
     public final int OUTPUT_SIZE;
 
-    private ArrayList<double[][]> data = new ArrayList<>();
+    // All rows are stored back to back, row i's inputs are inputs[i * INPUT_SIZE .. (i+1) * INPUT_SIZE)
+    // And its expected outputs are outputs[i * OUTPUT_SIZE .. (i+1) * OUTPUT_SIZE)
+    private double[] inputs;
+    private double[] outputs;
+    private int rows;
+    private int capacity;
+    // For classification only the index of the expected class is stored, then outputs is null and labels[i]
+    // Is the class of row i. For sets with dense expected outputs labels is null
+    private int[] labels;
+
+    // A view only shows the rows parent.indices[from..to] of its parent and has no data of its own,
+    // Without indices it shows the rows from..to of the parent
+    private final TrainSet parent;
+    private final int[] indices;
+    private final int from;
+    private final int to;
+
+    // Every other sampler of the set is split off this one, so they all follow from a single seed.
+    // Both are only made once batches are extracted, the samplers of a view are split off those of its parent
+    private EpochSampler rootSampler;
+    // Every thread that extracts batches gets a sampler of its own
+    private volatile ThreadLocal<EpochSampler> sampler;
+    // The thread that made the set always gets the first sampler split off, whenever other threads show up
+    private final Thread owner = Thread.currentThread();
 
     public TrainSet(int INPUT_SIZE, int OUTPUT_SIZE) {
+        this(INPUT_SIZE, OUTPUT_SIZE, 16);
+    }
+
+    // Reserves room for capacity rows up front, the set still grows past that if needed
+    public TrainSet(int INPUT_SIZE, int OUTPUT_SIZE, int capacity) {
+        this(INPUT_SIZE, OUTPUT_SIZE, capacity, false);
+    }
+
+    TrainSet(int INPUT_SIZE, int OUTPUT_SIZE, int capacity, boolean withLabels) {
         this.INPUT_SIZE = INPUT_SIZE;
         this.OUTPUT_SIZE = OUTPUT_SIZE;
+        capacity = Math.max(capacity, 1);
+        this.inputs = new double[capacity * INPUT_SIZE];
+        this.outputs = withLabels ? null : new double[capacity * OUTPUT_SIZE];
+        this.labels = withLabels ? new int[capacity] : null;
+        this.rows = 0;
+        this.capacity = capacity;
+        this.parent = null;
+        this.indices = null;
+        this.from = 0;
+        this.to = 0;
+    }
+
+    TrainSet(TrainSet parent, int[] indices, int from, int to) {
+        this.INPUT_SIZE = parent.INPUT_SIZE;
+        this.OUTPUT_SIZE = parent.OUTPUT_SIZE;
+        this.inputs = null;
+        this.outputs = null;
+        this.labels = null;
+        this.rows = 0;
+        this.capacity = 0;
+        this.parent = parent;
+        this.indices = indices;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * A set for classification with OUTPUT_SIZE classes, where every row only stores the index of its class
+     * Instead of a whole one-hot row of expected outputs.
+     */
+    public static TrainSet withLabels(int INPUT_SIZE, int OUTPUT_SIZE, int capacity) {
+        return new TrainSet(INPUT_SIZE, OUTPUT_SIZE, capacity, true);
+    }
+
+    public static void trainData(Network network, TrainSet set, int epochs, int loops, int batchSize, TrainingMode mode) {
+        // The network goes back to the mode it had once the training is over
+        TrainingMode previous = network.getTrainingMode();
+        network.setTrainingMode(mode);
+        try {
+            trainData(network, set, epochs, loops, batchSize);
+        } finally {
+            network.setTrainingMode(previous);
+        }
     }
 
     public static void trainData(Network network, TrainSet set, int epochs, int loops, int batchSize) {
-        for(int e = 0; e < epochs;e++) {
-            network.train(set, loops, batchSize);
-            System.out.println(">>>>>>>>>>>>>>>>>>>>>>>>>   "+ e + "   <<<<<<<<<<<<<<<<<<<<<<<<<<");
-            try {
-                network.saveNetwork("res/NNSaveFile");
-            } catch (Exception e1) {
-                e1.printStackTrace();
+        trainData(network, set, epochs, loops, batchSize, null, null);
+    }
+
+    /**
+     * Trains for at most epochs epochs. The schedule picks the learning rate of every epoch starting from the
+     * Network's learning rate, and earlyStopping ends the training once the validation loss stops improving
+     * And puts the best weights back. Either of them can be null.
+     */
+    public static void trainData(Network network, TrainSet set, int epochs, int loops, int batchSize,
+                                 LearningRateSchedule schedule, EarlyStopping earlyStopping) {
+        double baseRate = network.getLearningRate();
+        if (earlyStopping != null) {
+            earlyStopping.reset();
+        }
+        // The batches follow from the current seed, so training again after NetworkTools.setSeed repeats them
+        set.resetSampler(NetworkTools.nextSeed());
+        // The schedule only changes the rate for this training, also when it ends with an exception
+        try {
+            for(int e = 0; e < epochs;e++) {
+                if (schedule != null) {
+                    network.setLearningRate(schedule.rate(baseRate, e, epochs));
+                }
+                network.train(set, loops, batchSize);
+                System.out.println(">>>>>>>>>>>>>>>>>>>>>>>>>   "+ e + "   <<<<<<<<<<<<<<<<<<<<<<<<<<");
+
+                boolean stop = earlyStopping != null && earlyStopping.update(network, e);
+                if (stop || (earlyStopping != null && e == epochs - 1)) {
+                    earlyStopping.restoreBest(network);
+                }
+                try {
+                    network.saveNetwork("res/NNSaveFile");
+                } catch (Exception e1) {
+                    e1.printStackTrace();
+                }
+                if (stop) {
+                    System.out.println("Stopped early, best epoch was " + earlyStopping.getBestEpoch());
+                    break;
+                }
             }
+        } finally {
+            network.setLearningRate(baseRate);
         }
     }
 
     public static void testTrainSet(Network network, TrainSet set, int printSteps) {
         int correct = 0;
+        double[][] guesses = network.calculateBatch(set);
         for(int i = 0; i < set.size(); i++) {
 
-            double highest = NetworkTools.indexOfHighestValue(network.calculate(set.getInput(i)));
-            double actualHighest = NetworkTools.indexOfHighestValue(set.getOutput(i));
+            double highest = NetworkTools.indexOfHighestValue(guesses[i]);
+            double actualHighest = set.getLabel(i);
             if(highest == actualHighest) {
                 correct ++ ;
             }
@@ -47,53 +157,203 @@ public class TrainSet {
     }
 
     public void addData(double[] in, double[] expected) {
-        if (in.length != INPUT_SIZE || expected.length != OUTPUT_SIZE) {
+        if (parent != null || in.length != INPUT_SIZE || expected.length != OUTPUT_SIZE) {
+            return;
+        }
+        if (labels != null) {
+            // Only the class with the highest expected output is kept
+            addData(in, NetworkTools.indexOfHighestValue(expected));
             return;
         }
-        data.add(new double[][]{in, expected});
+        grow();
+        System.arraycopy(in, 0, inputs, rows * INPUT_SIZE, INPUT_SIZE);
+        System.arraycopy(expected, 0, outputs, rows * OUTPUT_SIZE, OUTPUT_SIZE);
+        rows++;
     }
 
-    public TrainSet extractBatch(int size) {
-        if(size > 0 && size <= this.size()) {
-            TrainSet set = new TrainSet(INPUT_SIZE, OUTPUT_SIZE);
-            Integer[] ids = NetworkTools.randomValues(size,0, this.size() - 1);
-            if (ids != null) {
-                for(Integer i: ids) {
-                    set.addData(this.getInput(i), this.getOutput(i));
-                }
+    // Adds a row to a set made with withLabels, label is the index of the expected class
+    public void addData(double[] in, int label) {
+        if (parent != null || labels == null || in.length != INPUT_SIZE || label < 0 || label >= OUTPUT_SIZE) {
+            return;
+        }
+        grow();
+        System.arraycopy(in, 0, inputs, rows * INPUT_SIZE, INPUT_SIZE);
+        labels[rows] = label;
+        rows++;
+    }
+
+    // Makes sure there is room for one more row
+    private void grow() {
+        if (rows == capacity) {
+            // Doubling keeps the cost of adding a row constant on average
+            capacity = Math.max(rows * 2, 16);
+            inputs = Arrays.copyOf(inputs, capacity * INPUT_SIZE);
+            if (labels != null) {
+                labels = Arrays.copyOf(labels, capacity);
+            } else {
+                outputs = Arrays.copyOf(outputs, capacity * OUTPUT_SIZE);
             }
-            return set;
-        } else {
-            return this;
         }
     }
 
+    /**
+     * Returns size rows that haven't been handed out yet in this epoch, as a view on this set.
+     * The batch is only valid until the calling thread starts its next epoch.
+     */
+    public TrainSet extractBatch(int size) {
+        ThreadLocal<EpochSampler> s = sampler;
+        if (s == null) {
+            s = createThreadSamplers();
+        }
+        return s.get().nextBatch(size);
+    }
+
+    /**
+     * A new sampler of this set, split off its root sampler. The thread that made the set always gets the first one,
+     * Other threads get theirs from here the first time they call extractBatch, in whatever order they get there.
+     * Workers that need the same batches on every seeded run should each be given a sampler from here in a fixed
+     * Order and call nextBatch on it instead.
+     */
+    public synchronized EpochSampler createSampler() {
+        if (rootSampler == null) {
+            rootSampler = parent == null ? new EpochSampler(this, NetworkTools.nextSeed()) : parent.splitSampler(this);
+        }
+        return rootSampler.split();
+    }
+
+    /**
+     * Splits the rows into count disjoint shards of about the same size and gives every shard a sampler of its own,
+     * Which only ever hands out rows of that shard. The samplers are split off the root sampler in shard order.
+     */
+    public synchronized EpochSampler[] createShardSamplers(int count) {
+        int n = size();
+        EpochSampler[] samplers = new EpochSampler[count];
+        for (int k = 0, start = 0; k < count; k++) {
+            // The first n % count shards get one row more
+            int end = start + n / count + (k < n % count ? 1 : 0);
+            samplers[k] = splitSampler(new TrainSet(this, null, start, end));
+            start = end;
+        }
+        return samplers;
+    }
+
+    /**
+     * Starts the batches over from seed. The root sampler is made again and every thread gets a new sampler split off
+     * It the next time it extracts a batch, also for sets that already handed out batches.
+     */
+    public synchronized void resetSampler(long seed) {
+        rootSampler = new EpochSampler(this, seed);
+        sampler = null;
+    }
+
+    private synchronized EpochSampler splitSampler(TrainSet view) {
+        createSampler();
+        return rootSampler.split(view);
+    }
+
+    private synchronized ThreadLocal<EpochSampler> createThreadSamplers() {
+        if (sampler == null) {
+            EpochSampler ownerSampler = createSampler();
+            sampler = ThreadLocal.withInitial(() -> Thread.currentThread() == owner ? ownerSampler : createSampler());
+        }
+        return sampler;
+    }
+
     public String toString() {
         StringBuilder s = new StringBuilder("TrainSet [" + INPUT_SIZE + " ; " + OUTPUT_SIZE + "]\n");
-        int index = 0;
-        for(double[][] r:data) {
-            s.append(index).append(":   ").append(Arrays.toString(r[0])).append("  >-||-<  ").append(Arrays.toString(r[1])).append("\n");
-            index++;
+        for(int index = 0; index < size(); index++) {
+            s.append(index).append(":   ").append(Arrays.toString(getInput(index))).append("  >-||-<  ").append(Arrays.toString(getOutput(index))).append("\n");
         }
         return s.toString();
     }
 
     public int size() {
-        return data.size();
+        return parent != null ? to - from : rows;
     }
 
+    // A copy of the inputs of a row, use getInputData and rowIndex to read them without copying
     public double[] getInput(int index) {
-        if(index >= 0 && index < size())
-            return data.get(index)[0];
+        if(index >= 0 && index < size()) {
+            int row = rowIndex(index);
+            return Arrays.copyOfRange(getInputData(), row * INPUT_SIZE, (row + 1) * INPUT_SIZE);
+        }
         else return null;
     }
 
+    // A copy of the expected outputs of a row, use getOutputData and rowIndex to read them without copying
     public double[] getOutput(int index) {
-        if(index >= 0 && index < size())
-            return data.get(index)[1];
+        if(index >= 0 && index < size()) {
+            int row = rowIndex(index);
+            if (hasLabels()) {
+                // Sets with labels build the one-hot row on demand
+                double[] out = new double[OUTPUT_SIZE];
+                out[getLabelData()[row]] = 1d;
+                return out;
+            }
+            return Arrays.copyOfRange(getOutputData(), row * OUTPUT_SIZE, (row + 1) * OUTPUT_SIZE);
+        }
         else return null;
     }
 
+    // The index of the expected class of a row, for dense rows that is the index of the highest expected output
+    public int getLabel(int index) {
+        if(index >= 0 && index < size()) {
+            int row = rowIndex(index);
+            if (hasLabels()) {
+                return getLabelData()[row];
+            }
+            double[] out = getOutputData();
+            int label = 0;
+            for (int i = 1; i < OUTPUT_SIZE; i++) {
+                if (out[row * OUTPUT_SIZE + i] > out[row * OUTPUT_SIZE + label]) {
+                    label = i;
+                }
+            }
+            return label;
+        }
+        else return -1;
+    }
+
+    public boolean hasLabels() {
+        return getLabelData() != null;
+    }
+
+    // Where the row index of this set is stored inside getInputData and getOutputData, for views that is in the parent
+    public int rowIndex(int index) {
+        if (parent == null) {
+            return index;
+        }
+        return parent.rowIndex(indices != null ? indices[from + index] : from + index);
+    }
+
+    // What a sampler hands out for a view on this set. Sets that keep their rows off the heap copy them here
+    TrainSet batchOf(TrainSet view) {
+        return parent != null ? parent.batchOf(view) : view;
+    }
+
+    // The rows from..to of this set, as a view that doesn't copy any data
+    public TrainSet slice(int from, int to) {
+        return new TrainSet(this, null, from, to);
+    }
+
+    /**
+     * The array all the inputs are stored in, row after row. Adding data can replace the array,
+     * So it should be fetched again after every addData.
+     */
+    public double[] getInputData() {
+        return parent != null ? parent.getInputData() : inputs;
+    }
+
+    // Null for sets with labels
+    public double[] getOutputData() {
+        return parent != null ? parent.getOutputData() : outputs;
+    }
+
+    // The class of every row, indexed the same way as getOutputData. Null for sets with dense expected outputs
+    public int[] getLabelData() {
+        return parent != null ? parent.getLabelData() : labels;
+    }
+
     public static void main(String[] args) {
         TrainSet set = new TrainSet(3,2);
 
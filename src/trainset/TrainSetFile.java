@@ -0,0 +1,85 @@
+package trainset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes TrainSets in a binary format that can be memory-mapped, so training can run on
+ * Sets that are much bigger than the heap. Everything is little-endian:
+ *
+ *   int    magic "NNTS"
+ *   int    version
+ *   int    INPUT_SIZE
+ *   int    OUTPUT_SIZE
+ *   int    1 if the rows store class labels, 0 if they store dense expected outputs
+ *   long   number of rows
+ *
+ * Followed by the rows, each one INPUT_SIZE doubles and then either OUTPUT_SIZE doubles or an int label.
+ */
+public class TrainSetFile {
+
+    static final int MAGIC = 0x4E4E5453;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 5 * 4 + 8;
+
+    // How many rows are written at once
+    private static final int WRITE_ROWS = 4096;
+
+    public static void write(TrainSet set, String fileName) throws IOException {
+        boolean labels = set.hasLabels();
+        int rowBytes = rowBytes(set.INPUT_SIZE, set.OUTPUT_SIZE, labels);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(set.INPUT_SIZE).putInt(set.OUTPUT_SIZE)
+                    .putInt(labels ? 1 : 0).putLong(set.size());
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_ROWS * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+            for (int from = 0; from < set.size(); from += WRITE_ROWS) {
+                // Slices of sets on disk are copied to the heap, so only one block is in memory at a time
+                TrainSet block = set.slice(from, Math.min(from + WRITE_ROWS, set.size()));
+                double[] inputs = block.getInputData();
+                double[] outputs = block.getOutputData();
+                int[] labelData = block.getLabelData();
+
+                buffer.clear();
+                for (int i = 0; i < block.size(); i++) {
+                    int row = block.rowIndex(i);
+                    for (int k = 0; k < set.INPUT_SIZE; k++) {
+                        buffer.putDouble(inputs[row * set.INPUT_SIZE + k]);
+                    }
+                    if (labels) {
+                        buffer.putInt(labelData[row]);
+                    } else {
+                        for (int k = 0; k < set.OUTPUT_SIZE; k++) {
+                            buffer.putDouble(outputs[row * set.OUTPUT_SIZE + k]);
+                        }
+                    }
+                }
+                buffer.flip();
+                writeFully(channel, buffer);
+            }
+        }
+    }
+
+    public static MappedTrainSet map(String fileName) throws IOException {
+        return new MappedTrainSet(fileName);
+    }
+
+    static int rowBytes(int inputSize, int outputSize, boolean labels) {
+        return inputSize * 8 + (labels ? 4 : outputSize * 8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}